@@ -0,0 +1,348 @@
+/** Benchmarks
+ *  Timing harness for the Assembler (Project 6), VM translator (Project 8)
+ *  and Jack compiler (Project 11), on synthetic inputs and the Project 9 ChaseGame */
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import JackCompiler.JackBench;
+
+public class Bench {
+
+    private static final int WARMUP_RUNS = 3;           // untimed runs before measuring, to let the JIT settle
+    private static final int MEASURED_RUNS = 5;         // timed runs per benchmark
+    private static final int LARGE_INPUT = 1000000;     // inputs at least this many lines get fewer runs
+    private static final int COMMAND_REPS = 100000;     // translations per vm command type
+    private static final String CHASE_DIR = "Project09/ChamAlanProject09/ChaseGame";
+    private static final String[] SUITES = {"asm", "vm", "jack", "chase"};
+    private static final int[] DEFAULT_SIZES = {1000, 100000};
+    private static final String[] VM_COMMANDS = {       // one sample of each vm command type
+            "add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not",
+            "push constant 7", "push local 2", "push pointer 1", "push static 3",
+            "pop argument 1", "pop temp 4", "pop static 0",
+            "label LOOP", "goto LOOP", "if-goto LOOP",
+            "function Main.main 3", "return", "call Math.multiply 2"};
+
+    /** Task timed by the harness */
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    /** Runs the chosen suites at the chosen sizes
+     *  Args:       String[] args - [suite] [lines...], where suite is asm, vm, jack, chase or all */
+    public static void main(String[] args) throws Exception {
+        String suite = (args.length > 0) ? args[0] : "all";
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+        if (!suite.equals("all") && !Arrays.asList(SUITES).contains(suite)) {
+            System.err.println("Error: expected suite asm, vm, jack, chase or all, followed by line counts.");
+            System.exit(1);
+        }
+        File dir = new File(System.getProperty("java.io.tmpdir"), "hack-bench");
+        dir.mkdirs();
+        System.out.printf("%-36s %10s %12s %12s %14s%n", "benchmark", "lines", "min ms", "median ms", "lines/s");
+        for (int lines : sizes) {
+            if (suite.equals("all") || suite.equals("asm")) benchAssembler(dir, lines);
+            if (suite.equals("all") || suite.equals("vm")) benchVM(dir, lines);
+            if (suite.equals("all") || suite.equals("jack")) benchJack(dir, lines);
+        }
+        if (suite.equals("all") || suite.equals("vm")) benchVMCommands();
+        if (suite.equals("all") || suite.equals("chase")) benchChaseGame(dir);
+    }
+
+    /** Times the Assembler end to end in its list-based and streaming modes
+     *  Args:       File dir - scratch directory
+     *              int lines - size of the synthetic .asm input */
+    private static void benchAssembler(File dir, int lines) throws Exception {
+        File asm = new File(dir, "synth" + lines + ".asm");
+        writeAsm(asm, lines);
+        assemblerTasks(asm, lines, "asm");
+    }
+
+    /** Times both Assembler modes on one .asm file
+     *  Args:       File asm - input file
+     *              int lines - number of lines, for reporting
+     *              String name - prefix for the benchmark names */
+    private static void assemblerTasks(File asm, int lines, String name) throws Exception {
+        File hack = new File(asm.getPath().replace(".asm", ".hack"));
+        Class<?> asmLines = Class.forName("Assembler$AsmLines");
+        Class<?> symbolTable = Class.forName("Assembler$SymbolTable");
+        Constructor<?> newLines = access(asmLines.getDeclaredConstructor(File.class));
+        Method getSymbols = access(asmLines.getDeclaredMethod("getSymbols"));
+        Method replaceSymbols = access(asmLines.getDeclaredMethod("replaceSymbols", symbolTable));
+        Method toHackBinary = access(asmLines.getDeclaredMethod("toHackBinary", symbolTable));
+        Method writeToFile = access(asmLines.getDeclaredMethod("writeToFile", File.class));
+        Method stream = access(Class.forName("Assembler$AsmStream").getDeclaredMethod("assemble", File.class, File.class));
+        time(name + " Assembler (list)", lines, () -> {
+            Object list = newLines.newInstance(asm);
+            Object symbols = getSymbols.invoke(list);
+            replaceSymbols.invoke(list, symbols);
+            toHackBinary.invoke(list, symbols);
+            writeToFile.invoke(list, hack);
+        });
+        time(name + " Assembler (-stream)", lines, () -> stream.invoke(null, asm, hack));
+    }
+
+    /** Times VM2 parsing and translation of a synthetic .vm file
+     *  Args:       File dir - scratch directory
+     *              int lines - size of the synthetic .vm input */
+    private static void benchVM(File dir, int lines) throws Exception {
+        File vmDir = new File(dir, "synth" + lines);
+        vmDir.mkdirs();
+        File vm = new File(vmDir, "Synth.vm");
+        writeVm(vm, lines);
+        vmTasks(new File[] {vm}, lines, "vm");
+    }
+
+    /** Times VM2 parsing and translation of a set of .vm files
+     *  Args:       File[] vmFiles - input files, all in one directory
+     *              int lines - number of lines, for reporting
+     *              String name - prefix for the benchmark names */
+    private static void vmTasks(File[] vmFiles, int lines, String name) throws Exception {
+        Class<?> parser = Class.forName("VM2$Parser");
+        Constructor<?> newParser = access(parser.getDeclaredConstructor(File.class));
+        Constructor<?> newWriter = access(Class.forName("VM2$CodeWriter")
+                .getDeclaredConstructor(File.class, Array.newInstance(parser, 0).getClass()));
+        File parent = vmFiles[0].getParentFile();
+        File asm = new File(parent, parent.getName() + ".asm");
+        time(name + " VM2.Parser", lines, () -> {
+            for (File f : vmFiles) newParser.newInstance(f);
+        });
+        Field mappedParse = access(Class.forName("VM2").getDeclaredField("mappedParse"));
+        mappedParse.setBoolean(null, true);
+        time(name + " VM2.Parser (-mmap)", lines, () -> {
+            for (File f : vmFiles) newParser.newInstance(f);
+        });
+        mappedParse.setBoolean(null, false);
+        time(name + " VM2 parse+translate", lines, () -> {
+            Object parsed = Array.newInstance(parser, vmFiles.length);
+            for (int i = 0; i < vmFiles.length; i++) Array.set(parsed, i, newParser.newInstance(vmFiles[i]));
+            newWriter.newInstance(asm, parsed);
+        });
+        Field binaryExt = access(Class.forName("VM2").getDeclaredField("binaryExt"));
+        binaryExt.set(null, ".hack");
+        File hack = new File(parent, parent.getName() + ".hack");
+        time(name + " VM2 parse+translate (-hack)", lines, () -> {
+            Object parsed = Array.newInstance(parser, vmFiles.length);
+            for (int i = 0; i < vmFiles.length; i++) Array.set(parsed, i, newParser.newInstance(vmFiles[i]));
+            newWriter.newInstance(hack, parsed);
+        });
+        binaryExt.set(null, null);
+    }
+
+    /** Times VM2.CodeWriter.vmToASM once per command type */
+    private static void benchVMCommands() throws Exception {
+        Class<?> command = Class.forName("VM2$Command");
+        Constructor<?> newCommand = access(command.getDeclaredConstructor(String.class));
+        Method vmToASM = access(Class.forName("VM2$CodeWriter")
+                .getDeclaredMethod("vmToASM", command, int.class, String.class, String.class));
+        for (String line : VM_COMMANDS) {
+            Object c = newCommand.newInstance(line);
+            time("vmToASM " + line, COMMAND_REPS, () -> {
+                for (int i = 0; i < COMMAND_REPS; i++) vmToASM.invoke(null, c, i, "Synth", "Synth.f");
+            });
+        }
+    }
+
+    /** Times tokenizing, parsing and code generation of a synthetic .jack class
+     *  Args:       File dir - scratch directory
+     *              int lines - size of the synthetic .jack input */
+    private static void benchJack(File dir, int lines) throws Exception {
+        File jackDir = new File(dir, "jack" + lines);
+        jackDir.mkdirs();
+        File jack = new File(jackDir, "Synth.jack");
+        writeJack(jack, lines);
+        jackTasks(new File[] {jack}, lines, "jack");
+    }
+
+    /** Times each compiler stage over a set of .jack files
+     *  Args:       File[] jackFiles - input files
+     *              int lines - number of lines, for reporting
+     *              String name - prefix for the benchmark names */
+    private static void jackTasks(File[] jackFiles, int lines, String name) throws Exception {
+        List<?>[] tokens = new List<?>[jackFiles.length];
+        Object[] trees = new Object[jackFiles.length];
+        File out = new File(System.getProperty("java.io.tmpdir"), "hack-bench/out.vm");
+        time(name + " Token.getTokenList", lines, () -> {
+            for (int i = 0; i < jackFiles.length; i++) tokens[i] = JackBench.tokenize(jackFiles[i]);
+        });
+        time(name + " ParseTree construction", lines, () -> {
+            for (int i = 0; i < jackFiles.length; i++) trees[i] = JackBench.parse(tokens[i]);
+        });
+        time(name + " Lexer+ParseTree (streamed)", lines, () -> {
+            for (int i = 0; i < jackFiles.length; i++) trees[i] = JackBench.parseFile(jackFiles[i]);
+        });
+        time(name + " ParseTree.writeCode", lines, () -> {
+            for (Object tree : trees) JackBench.writeCode(tree, out);
+        });
+    }
+
+    /** Times every stage on the ChaseGame sources from Project 9
+     *  Args:       File dir - scratch directory */
+    private static void benchChaseGame(File dir) throws Exception {
+        File chase = new File(CHASE_DIR);
+        if (!chase.isDirectory()) {
+            System.err.println("Warning: " + CHASE_DIR + " not found; run from the repository root to include it.");
+            return;
+        }
+        File copy = new File(dir, "ChaseGame");
+        copy.mkdirs();
+        ArrayList<File> jackFiles = new ArrayList<File>();
+        ArrayList<File> vmFiles = new ArrayList<File>();
+        int jackLines = 0, vmLines = 0;
+        File[] sources = chase.listFiles();
+        Arrays.sort(sources);
+        for (File f : sources) {
+            // work on copies so that the checked-in .vm files are never overwritten
+            File c = new File(copy, f.getName());
+            copy(f, c);
+            if (c.getName().endsWith(".jack")) {
+                jackFiles.add(c);
+                jackLines += countLines(c);
+            } else if (c.getName().endsWith(".vm")) {
+                vmFiles.add(c);
+                vmLines += countLines(c);
+            }
+        }
+        jackTasks(jackFiles.toArray(new File[0]), jackLines, "chase");
+        vmTasks(vmFiles.toArray(new File[0]), vmLines, "chase");
+        File asm = new File(copy, "ChaseGame.asm");
+        assemblerTasks(asm, countLines(asm), "chase");
+    }
+
+    /** Discards everything written to it, to silence the tools' progress messages */
+    private static final PrintStream QUIET = new PrintStream(new OutputStream() {
+        public void write(int b) {}
+        public void write(byte[] b, int off, int len) {}
+    });
+
+    /** Runs a task untimed, then timed, and prints the min and median
+     *  Args:       String name - name of the benchmark
+     *              int lines - input size, for the throughput column
+     *              Task task - the work being measured */
+    private static void time(String name, int lines, Task task) throws Exception {
+        boolean large = lines >= LARGE_INPUT;
+        int warmups = large ? 1 : WARMUP_RUNS;
+        int runs = large ? 3 : MEASURED_RUNS;
+        double[] ms = new double[runs];
+        PrintStream out = System.out;
+        System.setOut(QUIET);
+        try {
+            for (int i = 0; i < warmups; i++) task.run();
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                task.run();
+                ms[i] = (System.nanoTime() - start) / 1e6;
+            }
+        } finally {
+            System.setOut(out);
+        }
+        Arrays.sort(ms);
+        double median = ms[runs / 2];
+        System.out.printf("%-36s %10d %12.2f %12.2f %14.0f%n", name, lines, ms[0], median, lines / (median / 1e3));
+    }
+
+    /** Writes a synthetic .asm program mixing labels, variables, constants and C-instructions
+     *  Args:       File f - output file
+     *              int lines - number of lines to write */
+    private static void writeAsm(File f, int lines) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f)))) {
+            for (int i = 0; i < lines; i++) {
+                int block = i / 10;
+                switch (i % 10) {
+                    case 0: pw.println("(LOOP." + block + ")"); break;
+                    case 1: pw.println("@var" + (block % 500)); break;
+                    case 2: pw.println("M=M+1"); break;
+                    case 3: pw.println("@" + (block % 32768)); break;
+                    case 4: pw.println("D=D+A // add constant"); break;
+                    case 5: pw.println("@SP"); break;
+                    case 6: pw.println("AM=M-1"); break;
+                    case 7: pw.println("D=M-D"); break;
+                    case 8: pw.println("@LOOP." + (block / 2)); break;
+                    default: pw.println("D;JGT"); break;
+                }
+            }
+        }
+    }
+
+    /** Writes a synthetic .vm program made of small functions using every command type
+     *  Args:       File f - output file
+     *              int lines - number of lines to write */
+    private static void writeVm(File f, int lines) throws IOException {
+        String[] body = {
+                "push argument 0", "push constant 3", "add", "pop local 0", "label LOOP",
+                "push local 0", "push constant 1", "sub", "pop local 0", "push local 0",
+                "push static 1", "gt", "if-goto LOOP", "push this 2", "push that 1",
+                "and", "not", "neg", "push local 0", "call Synth.f0 1",
+                "pop temp 0", "push pointer 0", "goto END", "label END", "push local 0",
+                "return"};
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f)))) {
+            int written = 0;
+            for (int fn = 0; written < lines; fn++) {
+                pw.println("function Synth.f" + fn + " 2");
+                written++;
+                for (int i = 0; i < body.length && written < lines; i++, written++) pw.println(body[i]);
+            }
+        }
+    }
+
+    /** Writes a synthetic .jack class of many small functions with loops, branches and calls
+     *  Args:       File f - output file
+     *              int lines - approximate number of lines to write */
+    private static void writeJack(File f, int lines) throws IOException {
+        String[] body = {
+                "    function int f%d(int x, int y) {",
+                "        var int i, j;",
+                "        var Array a;",
+                "        let i = 0;",
+                "        let a = Array.new(10);",
+                "        while (i < 10) {",
+                "            let j = (i * 2) + x; // comment",
+                "            let a[i] = j - y;",
+                "            if ((j > y) & ~(x = 0)) { let x = x - 1; } else { let y = y + 1; }",
+                "            do Output.printInt(a[i]);",
+                "            let i = i + 1;",
+                "        }",
+                "        do a.dispose();",
+                "        return x + y;",
+                "    }"};
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f)))) {
+            pw.println("/** synthetic benchmark class */");
+            pw.println("class Synth {");
+            pw.println("    field int count;");
+            for (int fn = 0, written = 3; written < lines; fn++, written += body.length) {
+                for (String line : body) pw.println(String.format(line, fn));
+            }
+            pw.println("}");
+        }
+    }
+
+    /** Makes a private member of the tools callable from the harness
+     *  Args:       T member - constructor or method
+     *  Returns:    T - the same member, made accessible */
+    private static <T extends AccessibleObject> T access(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+
+    /** Copies a file
+     *  Args:       File from - source
+     *              File to - destination */
+    private static void copy(File from, File to) throws IOException {
+        java.nio.file.Files.copy(from.toPath(), to.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Counts the lines of a file
+     *  Args:       File f - file to count
+     *  Returns:    int - number of lines */
+    private static int countLines(File f) throws IOException {
+        int n = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            while (br.readLine() != null) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,55 @@
+package JackCompiler;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * JackBench.java
+ * MPCS 52011 - Benchmarks
+ * Public entry points into the package-private stages of the Project 11 compiler,
+ * so that the Bench harness can time each stage on its own.
+ */
+public class JackBench {
+    /**
+     * JackBench.tokenize
+     * Run the tokenizer on a .jack file
+     * @param f - .jack file to be tokenized
+     * @return the token list, to be handed to parse
+     * @throws IOException from reading the file
+     */
+    public static List<?> tokenize(File f) throws IOException {
+        return Token.getTokenList(f);
+    } // end method JackBench.tokenize
+
+    /**
+     * JackBench.parse
+     * Build a parse tree from a token list returned by tokenize
+     * @param tokens - token list returned by tokenize
+     * @return the parse tree, to be handed to writeCode
+     */
+    @SuppressWarnings("unchecked")
+    public static Object parse(List<?> tokens) {
+        return new ParseTree(new TokenStream((List<Token>) tokens));
+    } // end method JackBench.parse
+
+    /**
+     * JackBench.parseFile
+     * Build a parse tree from a .jack file, lexing tokens as the parser consumes them
+     * @param f - .jack file to be parsed
+     * @return the parse tree, to be handed to writeCode
+     * @throws IOException from reading the file
+     */
+    public static Object parseFile(File f) throws IOException {
+        return new ParseTree(new TokenStream(new Lexer(f)));
+    } // end method JackBench.parseFile
+
+    /**
+     * JackBench.writeCode
+     * Generate VM code for a parse tree returned by parse
+     * @param tree - parse tree returned by parse
+     * @param out - .vm file to be written
+     */
+    public static void writeCode(Object tree, File out) {
+        ((ParseTree) tree).writeCode(out.getPath());
+    } // end method JackBench.writeCode
+} // end class JackBench
@@ -4,35 +4,56 @@
  *  Project 6: The Assembler */
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Assembler {
     private static final boolean PRINT_DBG = false; // for debugging, print all lines at various points in assembling
     private static final String IN_EXT = ".asm"; // input file ext.
     private static final String OUT_EXT = ".hack"; // output file ext.
-    private static final int FIRST_FREE_REG = 16; // 1st open reg for variables
-    private static final int A_VALUE_DIGITS = 15; // num digits in machine code for memory address
-    private static final int JUMP_HACK_WIDTH = 3; // width of c-instruction jump field in .hack
+    private static final String PACKED_EXT = ".rom"; // packed output file ext.
+    static final int FIRST_FREE_REG = 16; // 1st open reg for variables
+    static final int A_VALUE_MASK = 0x7FFF; // bits of machine code for memory address
+    private static final int WORD_BITS = 16; // num digits in a line of .hack binary
     private static final String[] DEFAULT_SYMS = { // default symbols/vars
             "SP", "LCL", "ARG", "THIS", "THAT", "SCREEN", "KBD", "R0", "R1", "R2", "R3", "R4", "R5", "R6", "R7", "R8",
             "R9", "R10", "R11", "R12", "R13", "R14", "R15"};
     private static final int[] DEF_SYM_ADDRESSES = { // addresses for default syms
             0, 1, 2, 3, 4, 16384, 24576, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
-    private static final String[] JUMP_ASM = { // .asm jump options
+    static final String[] JUMP_ASM = { // .asm jump options
             "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
-    private static final String[] ASM_A_COMPS = { // array of possible computations with a=0
+    static final String[] ASM_A_COMPS = { // array of possible computations with a=0
             "0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1", "D+A", "D-A", "A-D", "D&A",
             "D|A"};
-    private static final String[] ASM_M_COMPS = { // array of possible computations with a=1
+    static final String[] ASM_M_COMPS = { // array of possible computations with a=1
             "", "", "", "", "M", "", "!M", "", "-M", "", "M+1", "", "M-1", "D+M", "D-M", "M-D", "D&M", "D|M"};
-    private static final String[] HACK_COMPS = { // array of possible .hack computation codes
+    static final String[] HACK_COMPS = { // array of possible .hack computation codes
             "101010", "111111", "111010", "001100", "110000", "001101", "110001", "001111", "110011", "011111",
             "110111", "001110", "110010", "000010", "010011", "000111", "000000", "010101"};
+    private static final String STREAM_FLAG = "-stream"; // option for two-pass streaming mode
+    private static final String PACKED_FLAG = "-packed"; // option for 2-byte big-endian output words
+    private static final String PARALLEL_FLAG = "-parallel"; // option for encoding chunks on a thread pool
+    private static boolean streamMode = false; // when true, assemble without holding the program in memory
+    private static boolean packedMode = false; // when true, write a packed rom image instead of .hack text
+    private static boolean parallelMode = false; // when true, encode instructions on a ForkJoinPool
 
     public static void main(String[] args) {
         System.out.println("Parsing console arguments.");
         // parse and validate console argument for input file name
         File inFile = parseConsoleArgs(args);
+        // extract filename prefix and use to make output file name
+        String inName = inFile.getPath();
+        String prefix = inName.substring(0, inName.lastIndexOf(IN_EXT));
+        File outFile = new File(prefix + (packedMode ? PACKED_EXT : OUT_EXT));
+        if (streamMode) {
+            // learn labels in one pass, then translate and write in a second pass
+            System.out.println("Streaming .asm file to " + outFile.getPath());
+            AsmStream.assemble(inFile, outFile);
+            System.out.println("All steps finished.");
+            System.exit(0);
+        }
         System.out.println("Reading lines from .asm file.");
         // read file and store raw lines in linkedlist of lines
         Assembler.AsmLines lines = new AsmLines(inFile);
@@ -40,19 +61,32 @@ public class Assembler {
         if (PRINT_DBG) lines.printAll();
         System.out.println("Learning and assigning values to variables in file.");
         // load default symbols and record new symbols used in .asm file
-        Hashtable<String, Integer> symbols = lines.getSymbols();
+        SymbolTable symbols = lines.getSymbols();
+        if (parallelMode) {
+            // every symbol now has an address, so each chunk of instructions can be encoded independently
+            System.out.println("Converting asm code to hack code in parallel.");
+            int[] words = ChunkEncoder.encodeAll(lines, symbols);
+            System.out.println("Writing words to file " + outFile.getPath());
+            ChunkEncoder.writeWords(words, outFile);
+            System.out.println("All steps finished.");
+            System.exit(0);
+        }
         System.out.println("Replacing symbols with numeric values.");
         // iterate through each line and convert any symbol to number
         lines.replaceSymbols(symbols);
         // (for debugging only) prints input file
         if (PRINT_DBG) lines.printAll();
+        if (packedMode) {
+            System.out.println("Writing packed words to file " + outFile.getPath());
+            // encode each symbol-free line straight into the rom image
+            lines.writeToRom(outFile);
+            System.out.println("All steps finished.");
+            System.exit(0);
+        }
         System.out.println("Converting asm code to hack code.");
         lines.toHackBinary(symbols);
         // (for debugging only) prints input file
         if (PRINT_DBG) lines.printAll();
-        // extract filename prefix and use to make output file name
-        String prefix = args[0].substring(0, args[0].lastIndexOf(IN_EXT));
-        File outFile = new File(prefix + OUT_EXT);
         System.out.println("Writing binary lines to file " + outFile.getPath());
         // writing machine lines to hack file
         lines.writeToFile(outFile);
@@ -60,16 +94,36 @@ public class Assembler {
         System.exit(0);
     }
 
-    // parse and validate console argument for input file name
+    // parse and validate console arguments for options and input file name
     private static File parseConsoleArgs(String[] args) {
+        // options come before the file name
+        int fileArg = 0;
+        while (fileArg < args.length - 1) {
+            if (args[fileArg].equals(STREAM_FLAG)) {
+                streamMode = true;
+            } else if (args[fileArg].equals(PACKED_FLAG)) {
+                packedMode = true;
+            } else if (args[fileArg].equals(PARALLEL_FLAG)) {
+                parallelMode = true;
+            } else {
+                break;
+            }
+            fileArg++;
+        }
         // make sure that one .asm file has been given as input
-        if (args.length != 1 || !args[0].endsWith(IN_EXT)) {
-            System.err.println("Error: expected exactly one command-line argument (i.e. name of asm file).\ne.g. "
-                    + "java Assembler example.asm");
+        if (args.length - fileArg != 1 || !args[fileArg].endsWith(IN_EXT)) {
+            System.err.println("Error: expected options followed by exactly one asm file name.\ne.g. "
+                    + "java Assembler example.asm\n     java Assembler " + STREAM_FLAG + " " + PACKED_FLAG + " example.asm"
+                    + "\n     java Assembler " + PARALLEL_FLAG + " " + PACKED_FLAG + " example.asm");
+            System.exit(1);
+        }
+        // streaming never holds the whole program, so it has nothing to split into chunks
+        if (streamMode && parallelMode) {
+            System.err.println("Error: " + STREAM_FLAG + " and " + PARALLEL_FLAG + " cannot be used together.");
             System.exit(1);
         }
         // check if file exists, then open filestream
-        File inFile = new File(args[0]);
+        File inFile = new File(args[fileArg]);
         if (!inFile.exists()) {
             System.err.println("Error: argument refers to file that does not exist.");
             System.exit(1);
@@ -80,6 +134,8 @@ public class Assembler {
 
     // class that holds a list of lines from a .asm file
     private static class AsmLines extends LinkedList<String> {
+        private int[] words;    // machine word of each symbol-free line, set by toHackBinary
+
         private AsmLines(File inFile) {
             // create new linkedlist and populate with lines from file, ignoring comments and whitespace
             super();
@@ -91,14 +147,7 @@ public class Assembler {
                 // keep adding newly read lines into array list
                 String line;
                 while ((line = br.readLine()) != null) {
-                    line = line.replaceAll("\\s", "");
-                    int index = line.indexOf("//");
-                    if (index != -1) {
-                        if (index == 0) {
-                            continue;
-                        }
-                        line = line.substring(0, index);
-                    }
+                    line = clean(line);
                     if (!line.isEmpty()) {
                         this.add(line);
                     }
@@ -112,133 +161,69 @@ public class Assembler {
             }
         }
 
-        // convert a symbol-free line of A-instruction asm code to a line of hack binary
-        private static String AInstructToBinary(String line, Hashtable<String, Integer> symbols) {
-            String str = line.substring(1);
-            Integer value = Integer.valueOf(str);
-            str = Integer.toBinaryString(value);
-            return "0" + setWidth(str, A_VALUE_DIGITS);
-        }
-
-        // convert a symbol-free line of C-instruction asm code to a line of hack binary
-        private static String CInstructToBinary(String line) {
-            int fieldIndex = 0;
-            String dest = null, comp = null, jump = null;
-            // separate string into at most three fields (i.e. dest, comp, jump)
-            String[] fields = line.split("[;=]");
-            if (line.contains("=")) {
-                dest = fields[fieldIndex++];
-            }
-            comp = fields[fieldIndex++];
-            if (line.contains(";")) {
-                jump = fields[fieldIndex++];
-            }
-            String destBinary = destToBinary(dest);
-            String compBinary = compToBinary(comp);
-            String jumpBinary = jumpToBinary(jump);
-            return "111" + compBinary + destBinary + jumpBinary;
-        }
-
-        // convert a .asm destination field to .hack binary string
-        private static String destToBinary(String dest) {
-            if (dest == null) {
-                return "000";
-            }
-            String d1 = dest.contains("A") ? "1" : "0";
-            String d2 = dest.contains("D") ? "1" : "0";
-            String d3 = dest.contains("M") ? "1" : "0";
-            return d1 + d2 + d3;
-        }
-
-        // convert a .asm computation field to .hack binary string
-        private static String compToBinary(String comp) {
-            boolean M = comp.contains("M");
-            String[] compList = M ? ASM_M_COMPS : ASM_A_COMPS;
-            String a = M ? "1" : "0";
-            String c = "XXXXXX";
-            for (int i = 0; i < compList.length; i++) {
-                // if the comp String matches a known C-instruction, then set c to the corresponding .hack code
-                if (comp.equals(compList[i])) {
-                    c = HACK_COMPS[i];
-                }
-            }
-            return a + c;
-        }
-
-        // convert a .asm jump field to .hack binary string
-        private static String jumpToBinary(String jump) {
-            if (jump == null) {
-                return "000";
-            }
-            for (int i = 0; i < JUMP_ASM.length; i++) {
-                // if jump String matches a known jump option, then return the corresponding .asm jump code
-                if (jump.equals(JUMP_ASM[i])) {
-                    return setWidth(Integer.toBinaryString(i+1), JUMP_HACK_WIDTH);
-                }
+        // strip whitespace and comments from a raw line of .asm code
+        private static String clean(String line) {
+            line = line.replaceAll("\\s", "");
+            int index = line.indexOf("//");
+            if (index != -1) {
+                line = line.substring(0, index);
             }
-            return "XXX";
+            return line;
         }
 
-        // convert each line in this symbol-free instance from asm to hack binary
-        private void toHackBinary(Hashtable<String, Integer> symbols) {
+        // encode each line in this symbol-free instance as a machine word; the lines themselves are kept,
+        // and the words are only formatted as binary text by writeToFile
+        private void toHackBinary(SymbolTable symbols) {
+            this.words = new int[this.size()];
             try {
-                // iterate through lines to replace line with binary
-                ListIterator<String> iter = this.listIterator();
-                String str;
-                while (iter.hasNext()) {
-                    str = iter.next();
-                    iter.remove();
-                    if (str.matches("@.++")) {
-                        // replace A-instruction
-                        iter.add(AInstructToBinary(str, symbols));
-                    } else {
-                        // replace C-instruction
-                        iter.add(CInstructToBinary(str));
-                    }
+                int i = 0;
+                for (String str : this) {
+                    this.words[i++] = (str.charAt(0) == '@') ? Encoder.encodeA(str) : Encoder.encodeC(str);
                 }
-            } catch (UnsupportedOperationException uoe) {
-                System.err.println("Error: encountered UnsupportedOperationException when replacing symbols.");
-                System.exit(1);
-            } catch (ClassCastException cce) {
-                System.err.println("Error: encountered ClassCastException when replacing symbols.");
-                System.exit(1);
             } catch (IllegalArgumentException iae) {
                 System.err.println("Error: encountered IllegalArgumentException when replacing symbols.");
                 System.exit(1);
             }
         }
 
-        // write all the lines stored in this instance into a file specified by outFile
+        // write the words made by toHackBinary into a file specified by outFile, one line of binary each
         private void writeToFile(File outFile) {
-            try {
-                PrintWriter pw = new PrintWriter(outFile.getPath());
-                ListIterator<String> iter = this.listIterator();
-                while (iter.hasNext()) {
-                    pw.println(iter.next());
-                }
-                pw.close();
+            try (FileWriter out = new FileWriter(outFile.getPath())) {
+                Encoder.writeBinary(out, this.words, this.words.length);
             } catch (FileNotFoundException fnfe) {
                 System.err.println("Error: encountered FileNotFoundException when writing output file.");
                 System.exit(1);
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when writing output file.");
+                System.exit(1);
             }
         }
 
+        // write all the symbol-free lines stored in this instance into a packed rom image
+        private void writeToRom(File outFile) {
+            MappedByteBuffer rom = RomImage.create(outFile, this.size());
+            ListIterator<String> iter = this.listIterator();
+            while (iter.hasNext()) {
+                String str = iter.next();
+                rom.putShort((short) (str.charAt(0) == '@' ? Encoder.encodeA(str) : Encoder.encodeC(str)));
+            }
+            rom.force();
+        }
+
         // iterate through list of lines and assign number values to new symbols
-        private Hashtable<String, Integer> getSymbols() {
+        private SymbolTable getSymbols() {
             // track next free memory slot for assigning variable name
             int nextFree = FIRST_FREE_REG;
             // track current "instruction" number
             int lineNum = 0;
-            // make a new hashtable and populate with standard symbols/vars
-            Hashtable<String, Integer> symbols = new Hashtable<String, Integer>();
+            // count labels so the table can be sized before any symbol is added
+            int numLabels = 0;
+            for (String line : this) {
+                if (line.charAt(0) == '(') numLabels++;
+            }
+            // make a new symbol table, already populated with standard symbols/vars
+            SymbolTable symbols = new SymbolTable(numLabels);
             try {
-                // first load standard symbols
-                for (int i = 0; i < DEFAULT_SYMS.length; i++) {
-                    if (!symbols.containsKey(DEFAULT_SYMS[i])) {
-                        symbols.put(DEFAULT_SYMS[i], DEF_SYM_ADDRESSES[i]);
-                        // System.out.println("\tDefault : " + DEFAULT_SYMS[i] + ", " + symbols.get(DEFAULT_SYMS[i]));
-                    }
-                }
                 // first iterate through to find new label symbols
                 ListIterator<String> iter = this.listIterator();
                 String str;
@@ -277,7 +262,7 @@ public class Assembler {
         }
 
         // strip symbols from the AsmLines and replace with appropriate number
-        private void replaceSymbols(Hashtable<String, Integer> symbols) {
+        private void replaceSymbols(SymbolTable symbols) {
             try {
                 // iterate through lines to remove lines or replace symbols
                 ListIterator<String> iter = this.listIterator();
@@ -309,21 +294,6 @@ public class Assembler {
             }
         }
 
-        // truncate or pad a binary number string to have totalWidth
-        private static String setWidth(String num, int totalWidth) {
-            int len = num.length();
-            int diff = totalWidth - num.length();
-            if (diff >= 0) {
-                String out = "";
-                for (int i = 0; i < diff; i++) {
-                    out = out + "0";
-                }
-                return out + num;
-            } else {
-                return num.substring(-diff, len);
-            }
-        }
-
         // for debugging purposes, print all contents of the list
         private void printAll() {
             System.out.println("Printing all lines:");
@@ -335,7 +305,482 @@ public class Assembler {
 
         // check if a string comprises a valid positive integer
         private static boolean stringIsPositiveInteger(String str) {
-            return str.matches("[0-9]*");
+            for (int i = 0; i < str.length(); i++) {
+                if (str.charAt(i) < '0' || str.charAt(i) > '9') return false;
+            }
+            return true;
         }
     } // end Class AsmLines
+
+
+    // assembles a .asm file in two streaming passes, keeping only the symbol table in memory
+    private static class AsmStream {
+        // first pass learns label addresses, second pass translates and writes each instruction as it is read
+        private static void assemble(File inFile, File outFile) {
+            SymbolTable symbols = new SymbolTable(0);
+            int numInstructs = getLabels(inFile, symbols);
+            // track next free memory slot for assigning variable name
+            int nextFree = FIRST_FREE_REG;
+            char[] buffer = new char[WORD_BITS];
+            // the instruction count from the first pass fixes the size of a packed image up front
+            MappedByteBuffer rom = packedMode ? RomImage.create(outFile, numInstructs) : null;
+            try (
+                    BufferedReader br = new BufferedReader(new FileReader(inFile), 1 << 16);
+                    PrintWriter pw = packedMode ? null
+                            : new PrintWriter(new BufferedWriter(new FileWriter(outFile), 1 << 16));
+            ) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = AsmLines.clean(line);
+                    if (line.isEmpty() || isLabel(line)) {
+                        continue;
+                    }
+                    if (isAInstruct(line)) {
+                        String str = line.substring(1);
+                        if (!AsmLines.stringIsPositiveInteger(str)) {
+                            // variables are numbered in order of first use, as in AsmLines.getSymbols
+                            int value = symbols.get(str);
+                            if (value == SymbolTable.NOT_FOUND) {
+                                if (PRINT_DBG) System.out.println("\tA-Define: " + str + ", " + nextFree);
+                                value = nextFree++;
+                                symbols.put(str, value);
+                            }
+                            line = "@" + value;
+                        }
+                        write(pw, rom, Encoder.encodeA(line), buffer);
+                    } else {
+                        write(pw, rom, Encoder.encodeC(line), buffer);
+                    }
+                }
+                if (rom != null) rom.force();
+            } catch (FileNotFoundException fnfe) {
+                System.err.println("Error: encountered FileNotFoundException when streaming files.");
+                System.exit(1);
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when streaming files.");
+                System.exit(1);
+            }
+        }
+
+        // write one machine word to the rom image if there is one, otherwise as a line of text
+        private static void write(PrintWriter pw, MappedByteBuffer rom, int word, char[] buffer) {
+            if (rom != null) {
+                rom.putShort((short) word);
+            } else {
+                Encoder.writeBinary(pw, word, buffer);
+            }
+        }
+
+        // read through the file once, add the address of every label to symbols,
+        // and return the number of instructions in the file
+        private static int getLabels(File inFile, SymbolTable symbols) {
+            // track current "instruction" number
+            int lineNum = 0;
+            try (
+                    BufferedReader br = new BufferedReader(new FileReader(inFile), 1 << 16);
+            ) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = AsmLines.clean(line);
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (isLabel(line)) {
+                        String str = line.substring(1, line.length()-1);
+                        if (!symbols.containsKey(str)) {
+                            if (PRINT_DBG) System.out.println("\tL-Define: " + str + ", " + lineNum);
+                            symbols.put(str, lineNum);
+                        }
+                    } else {
+                        lineNum++;
+                    }
+                }
+            } catch (FileNotFoundException fnfe) {
+                System.err.println("Error: encountered FileNotFoundException when opening input file.");
+                System.exit(1);
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when reading from input file.");
+                System.exit(1);
+            }
+            return lineNum;
+        }
+
+        // check if a cleaned line is a label definition, e.g. (LOOP)
+        private static boolean isLabel(String line) {
+            return line.charAt(0) == '(' && line.charAt(line.length()-1) == ')' && line.length() > 1;
+        }
+
+        // check if a cleaned line is an A-instruction, e.g. @i
+        private static boolean isAInstruct(String line) {
+            return line.charAt(0) == '@' && line.length() > 1;
+        }
+    } // end Class AsmStream
+
+
+    // encodes ranges of instructions on a ForkJoinPool once getSymbols has given every symbol an address
+    private static class ChunkEncoder extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private static final int CHUNK_SIZE = 1 << 14; // instructions encoded by one task without splitting
+        private final String[] instructs; // cleaned instructions, labels removed
+        private final int[] words; // machine words, filled at the same index as instructs
+        private final SymbolTable symbols; // complete table, only read from here on
+        private final int from; // first index of this task's range
+        private final int to; // index after the last of this task's range
+
+        private ChunkEncoder(String[] instructs, int[] words, SymbolTable symbols, int from, int to) {
+            this.instructs = instructs;
+            this.words = words;
+            this.symbols = symbols;
+            this.from = from;
+            this.to = to;
+        }
+
+        // encode all instructions in lines; the output matches the serial modes word for word
+        private static int[] encodeAll(AsmLines lines, SymbolTable symbols) {
+            ArrayList<String> instructs = new ArrayList<String>(lines.size());
+            for (String line : lines) {
+                if (line.charAt(0) != '(') instructs.add(line);
+            }
+            String[] array = instructs.toArray(new String[instructs.size()]);
+            int[] words = new int[array.length];
+            ForkJoinPool.commonPool().invoke(new ChunkEncoder(array, words, symbols, 0, array.length));
+            return words;
+        }
+
+        // write machine words as .hack text or, in packed mode, as a rom image
+        private static void writeWords(int[] words, File outFile) {
+            if (packedMode) {
+                MappedByteBuffer rom = RomImage.create(outFile, words.length);
+                for (int word : words) {
+                    rom.putShort((short) word);
+                }
+                rom.force();
+                return;
+            }
+            char[] buffer = new char[WORD_BITS];
+            try (
+                    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(outFile), 1 << 16));
+            ) {
+                for (int word : words) {
+                    Encoder.writeBinary(pw, word, buffer);
+                }
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when writing output file.");
+                System.exit(1);
+            }
+        }
+
+        // split the range in half until it is small enough, then encode it directly
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= CHUNK_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.words[i] = this.encode(this.instructs[i]);
+                }
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new ChunkEncoder(this.instructs, this.words, this.symbols, this.from, mid),
+                    new ChunkEncoder(this.instructs, this.words, this.symbols, mid, this.to));
+        }
+
+        // encode one instruction, looking up its symbol if it is an A-instruction with one
+        private int encode(String line) {
+            if (line.charAt(0) != '@' || line.length() == 1) {
+                return Encoder.encodeC(line);
+            }
+            String str = line.substring(1);
+            if (AsmLines.stringIsPositiveInteger(str)) {
+                return Encoder.encodeA(line);
+            }
+            return this.symbols.get(str) & A_VALUE_MASK;
+        }
+    } // end Class ChunkEncoder
+
+
+    // open-addressing map from symbol names to addresses, with no boxing and no locking
+    static class SymbolTable {
+        static final int NOT_FOUND = -1; // returned by get for unknown symbols
+        private static final int MIN_CAPACITY = 64; // smallest table size, a power of two
+        private String[] keys; // symbol names, null for empty slots
+        private int[] values; // address stored for the name in the same slot
+        private int size; // number of symbols in the table
+
+        // make a table with room for the default symbols plus expected more, kept at most half full
+        SymbolTable(int expected) {
+            int capacity = MIN_CAPACITY;
+            while (capacity < 2 * (expected + DEFAULT_SYMS.length)) {
+                capacity <<= 1;
+            }
+            this.keys = new String[capacity];
+            this.values = new int[capacity];
+            for (int i = 0; i < DEFAULT_SYMS.length; i++) {
+                this.put(DEFAULT_SYMS[i], DEF_SYM_ADDRESSES[i]);
+            }
+        }
+
+        // return the address of a symbol, or NOT_FOUND
+        private int get(String key) {
+            int slot = this.slotOf(key);
+            return (this.keys[slot] == null) ? NOT_FOUND : this.values[slot];
+        }
+
+        // return the address of the symbol spelled by chars[from, to), or NOT_FOUND, without making a String
+        int get(CharSequence chars, int from, int to) {
+            int mask = this.keys.length - 1;
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + chars.charAt(i); // same as String.hashCode
+            }
+            h *= 0x9E3779B1;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (this.keys[slot] != null && !spells(this.keys[slot], chars, from, to)) {
+                slot = (slot + 1) & mask;
+            }
+            return (this.keys[slot] == null) ? NOT_FOUND : this.values[slot];
+        }
+
+        // check if chars[from, to) spell key
+        private static boolean spells(String key, CharSequence chars, int from, int to) {
+            if (key.length() != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != chars.charAt(from + i)) return false;
+            }
+            return true;
+        }
+
+        // check if a symbol has been given an address
+        private boolean containsKey(String key) {
+            return this.keys[this.slotOf(key)] != null;
+        }
+
+        // set the address of a symbol, growing the table when it becomes half full
+        void put(String key, int value) {
+            int slot = this.slotOf(key);
+            if (this.keys[slot] == null) {
+                this.keys[slot] = key;
+                this.size++;
+            }
+            this.values[slot] = value;
+            if (2 * this.size > this.keys.length) {
+                this.grow();
+            }
+        }
+
+        // find the slot holding key, or the empty slot where it would go
+        private int slotOf(String key) {
+            int mask = this.keys.length - 1;
+            int h = key.hashCode() * 0x9E3779B1;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (this.keys[slot] != null && !this.keys[slot].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // double the capacity and re-insert every symbol
+        private void grow() {
+            String[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.keys = new String[oldKeys.length << 1];
+            this.values = new int[oldKeys.length << 1];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = this.slotOf(oldKeys[i]);
+                    this.keys[slot] = oldKeys[i];
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+    } // end Class SymbolTable
+
+
+    // encodes cleaned, symbol-free asm instructions directly into 16-bit hack machine words
+    static class Encoder {
+        private static final int C_PREFIX = 0xE000; // leading 111 of every C-instruction
+        private static final int M_BIT = 0x1000; // a-bit, set when the computation reads M
+        private static final int COMP_SHIFT = 6; // position of the c1..c6 bits
+        private static final int DEST_SHIFT = 3; // position of the d1..d3 bits
+        private static final int TABLE_BITS = 6; // log2 of comp hash table size
+        private static final int[] COMP_KEYS = new int[1 << TABLE_BITS]; // packed comp mnemonics, 0 if empty
+        private static final int[] COMP_CODES = new int[1 << TABLE_BITS]; // a and c bits for each key
+        private static final int[] JUMP_KEYS = new int[JUMP_ASM.length]; // packed jump mnemonics
+
+        // build the comp hash table and jump keys from the mnemonic tables
+        static {
+            for (int i = 0; i < HACK_COMPS.length; i++) {
+                int code = Integer.parseInt(HACK_COMPS[i], 2) << COMP_SHIFT;
+                putComp(ASM_A_COMPS[i], code);
+                putComp(ASM_M_COMPS[i], code | M_BIT);
+            }
+            for (int i = 0; i < JUMP_ASM.length; i++) {
+                JUMP_KEYS[i] = pack(JUMP_ASM[i], 0, JUMP_ASM[i].length());
+            }
+        }
+
+        // add a comp mnemonic to the hash table with linear probing
+        private static void putComp(String comp, int code) {
+            if (comp.isEmpty()) {
+                return;
+            }
+            int key = pack(comp, 0, comp.length());
+            int slot = hash(key);
+            while (COMP_KEYS[slot] != 0) {
+                slot = (slot + 1) & (COMP_KEYS.length - 1);
+            }
+            COMP_KEYS[slot] = key;
+            COMP_CODES[slot] = code;
+        }
+
+        // pack up to four ascii chars of str[from, to) into an int, or -1 if the field is too long
+        private static int pack(CharSequence str, int from, int to) {
+            if (to - from > 4) {
+                return -1;
+            }
+            int key = 0;
+            for (int i = from; i < to; i++) {
+                key = (key << 8) | (str.charAt(i) & 0xFF);
+            }
+            return key;
+        }
+
+        // map a packed mnemonic to a slot in the comp hash table
+        private static int hash(int key) {
+            return (key * 0x9E3779B1) >>> (32 - TABLE_BITS);
+        }
+
+        // convert a symbol-free A-instruction such as @123 to a machine word
+        static int encodeA(CharSequence line) {
+            int value = 0;
+            for (int i = 1; i < line.length(); i++) {
+                value = value * 10 + (line.charAt(i) - '0');
+            }
+            return value & A_VALUE_MASK;
+        }
+
+        // convert a C-instruction of the form dest=comp;jump to a machine word
+        static int encodeC(CharSequence line) {
+            int eq = -1;
+            int semi = -1;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '=' && eq == -1) eq = i;
+                else if (c == ';' && semi == -1) semi = i;
+            }
+            int compStart = eq + 1;
+            int compEnd = (semi == -1) ? line.length() : semi;
+            // dest bits
+            int dest = 0;
+            for (int i = 0; i < eq; i++) {
+                char c = line.charAt(i);
+                if (c == 'A') dest |= 4;
+                else if (c == 'D') dest |= 2;
+                else if (c == 'M') dest |= 1;
+            }
+            // comp bits
+            int key = pack(line, compStart, compEnd);
+            int slot = hash(key);
+            while (key <= 0 || COMP_KEYS[slot] != key) {
+                if (key <= 0 || COMP_KEYS[slot] == 0) {
+                    System.err.println("Error: unrecognized computation in line " + line);
+                    System.exit(1);
+                }
+                slot = (slot + 1) & (COMP_KEYS.length - 1);
+            }
+            // jump bits
+            int jump = 0;
+            if (semi != -1) {
+                key = pack(line, semi + 1, line.length());
+                for (int i = 0; i < JUMP_KEYS.length && jump == 0; i++) {
+                    if (JUMP_KEYS[i] == key) jump = i + 1;
+                }
+                if (jump == 0) {
+                    System.err.println("Error: unrecognized jump in line " + line);
+                    System.exit(1);
+                }
+            }
+            return C_PREFIX | COMP_CODES[slot] | (dest << DEST_SHIFT) | jump;
+        }
+
+        // write a machine word as a line of .hack binary text, reusing buffer
+        private static void writeBinary(PrintWriter pw, int word, char[] buffer) {
+            fillBinary(word, buffer);
+            pw.write(buffer);
+            pw.println();
+        }
+
+        // write machine words as lines of .hack binary text, many lines per call to out.write
+        static void writeBinary(Writer out, int[] words, int numWords) throws IOException {
+            String newline = System.lineSeparator();
+            int lineLength = WORD_BITS + newline.length();
+            char[] block = new char[4096 * lineLength];
+            char[] buffer = new char[WORD_BITS];
+            int used = 0;
+            for (int i = 0; i < numWords; i++) {
+                fillBinary(words[i], buffer);
+                System.arraycopy(buffer, 0, block, used, WORD_BITS);
+                newline.getChars(0, newline.length(), block, used + WORD_BITS);
+                used += lineLength;
+                if (used == block.length) {
+                    out.write(block, 0, used);
+                    used = 0;
+                }
+            }
+            out.write(block, 0, used);
+        }
+
+        // fill buffer with the '0'/'1' digits of a machine word, most significant bit first
+        private static void fillBinary(int word, char[] buffer) {
+            for (int i = WORD_BITS - 1; i >= 0; i--) {
+                buffer[i] = (char) ('0' + (word & 1));
+                word >>>= 1;
+            }
+        }
+    } // end Class Encoder
+
+
+    // reads and writes packed rom images: one big-endian 2-byte word per instruction, no header
+    static class RomImage {
+        private static final int WORD_BYTES = 2; // bytes per machine word in a rom image
+
+        // create (or truncate) outFile to hold numWords words and map it for writing
+        static MappedByteBuffer create(File outFile, int numWords) {
+            try (
+                    RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+                    FileChannel fc = raf.getChannel();
+            ) {
+                raf.setLength((long) numWords * WORD_BYTES);
+                // the mapping stays valid after the channel is closed
+                return fc.map(FileChannel.MapMode.READ_WRITE, 0, (long) numWords * WORD_BYTES);
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when mapping output file.");
+                System.exit(1);
+            }
+            return null;
+        }
+
+        // map a rom image read-only, e.g. for a loader that wants to fetch words in place
+        static ShortBuffer map(File romFile) {
+            try (
+                    FileChannel fc = new RandomAccessFile(romFile, "r").getChannel();
+            ) {
+                // buffers are big-endian by default, matching the image format
+                return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).asShortBuffer();
+            } catch (IOException ioe) {
+                System.err.println("Error: encountered IOException when mapping rom file.");
+                System.exit(1);
+            }
+            return null;
+        }
+
+        // read a whole rom image into an array of machine words
+        static short[] read(File romFile) {
+            ShortBuffer words = map(romFile);
+            short[] rom = new short[words.remaining()];
+            words.get(rom);
+            return rom;
+        }
+    } // end Class RomImage
 } // end Class Assembler
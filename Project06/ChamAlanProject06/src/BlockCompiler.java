@@ -0,0 +1,283 @@
+/** Alan Cham
+ *  52011 Introduction to Computer Systems
+ *  Compiles basic blocks of Hack machine code into JVM classes for the Emulator */
+
+import java.io.*;
+import java.util.*;
+
+class BlockCompiler {
+    static final int MAX_BLOCK = 1000; // most instructions compiled into one block, keeps methods well under 64KB
+    private static final int CLASS_VERSION = 49; // Java 5 class files need no StackMapTable, so branches stay simple
+    private static final String BLOCK_INTERFACE = "Emulator$CompiledBlock"; // interface every block implements
+    private static final String RUN_DESC = "([S[I)I"; // descriptor of CompiledBlock.run
+    // local variable slots in the generated run method
+    private static final int L_RAM = 1, L_REGS = 2, L_A = 3, L_D = 4, L_OUT = 5, L_TARGET = 6;
+    // the JVM opcodes used below
+    private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04, SIPUSH = 0x11,
+            ILOAD = 0x15, ALOAD = 0x19, IALOAD = 0x2e, SALOAD = 0x35, ISTORE = 0x36, IASTORE = 0x4f,
+            SASTORE = 0x56, IADD = 0x60, ISUB = 0x64, INEG = 0x74, IAND = 0x7e, IOR = 0x80, IXOR = 0x82,
+            I2S = 0x93, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e,
+            GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1, INVOKESPECIAL = 0xb7, ALOAD_0 = 0x2a;
+    // JVM branch opcode for each value of the j1..j3 bits, 0 meaning never and GOTO meaning always
+    private static final int[] JUMP_OPS = {0, IFGT, IFEQ, IFGE, IFLT, IFNE, IFLE, GOTO};
+
+    private final BlockLoader loader = new BlockLoader(BlockCompiler.class.getClassLoader());
+    private int numClasses; // used to give every generated class a new name
+
+    // loads the generated classes, one private loader per compiler so they can be unloaded together
+    private static class BlockLoader extends ClassLoader {
+        private BlockLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // find the last instruction of the block entered at start: the first jump, the word before
+    // the next leader, or the word that makes the block MAX_BLOCK long; returns -1 if it cannot be compiled
+    static int blockEnd(short[] rom, boolean[] leaders, int start) {
+        for (int pc = start; pc < rom.length && pc - start < MAX_BLOCK; pc++) {
+            int instr = rom[pc];
+            if ((instr & 0x8000) != 0 && Emulator.opOf(instr) == -1) return -1;
+            if ((instr & 0x8000) != 0 && (instr & 7) != 0) return pc;
+            if (pc + 1 < rom.length && leaders[pc + 1]) return pc;
+        }
+        return -1;
+    }
+
+    // generate, load and instantiate a class that runs rom[start..end] and returns the next pc
+    Emulator.CompiledBlock compile(short[] rom, int start, int end) {
+        String name = "HackBlock" + (this.numClasses++) + "_" + start;
+        try {
+            Class<?> c = this.loader.define(name, classFile(name, rom, start, end));
+            return (Emulator.CompiledBlock) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Warning: could not compile block at " + start + ": " + e);
+            return null;
+        }
+    }
+
+    // write the class file of one block
+    private static byte[] classFile(String name, short[] rom, int start, int end) {
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef(name);
+        int superClass = cp.classRef("java/lang/Object");
+        int iface = cp.classRef(BLOCK_INTERFACE);
+        int objectInit = cp.methodRef(superClass, "<init>", "()V");
+        int initName = cp.utf8("<init>"), initDesc = cp.utf8("()V");
+        int runName = cp.utf8("run"), runDesc = cp.utf8(RUN_DESC);
+        int code = cp.utf8("Code");
+        // constructor: super()
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        u2(init, objectInit);
+        init.write(RETURN);
+        byte[] run = runCode(rom, start, end);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        u4(out, 0xCAFEBABE);
+        u2(out, 0);
+        u2(out, CLASS_VERSION);
+        cp.write(out);
+        u2(out, 0x0001 | 0x0010 | 0x0020); // public final super
+        u2(out, thisClass);
+        u2(out, superClass);
+        u2(out, 1);
+        u2(out, iface);
+        u2(out, 0); // fields
+        u2(out, 2); // methods
+        method(out, 0x0001, initName, initDesc, code, 1, 1, init.toByteArray());
+        method(out, 0x0001, runName, runDesc, code, 5, L_TARGET + 1, run);
+        u2(out, 0); // class attributes
+        return out.toByteArray();
+    }
+
+    // write one method_info with only a Code attribute
+    private static void method(ByteArrayOutputStream out, int access, int name, int desc, int codeAttr,
+                               int maxStack, int maxLocals, byte[] code) {
+        u2(out, access);
+        u2(out, name);
+        u2(out, desc);
+        u2(out, 1);
+        u2(out, codeAttr);
+        u4(out, 12 + code.length);
+        u2(out, maxStack);
+        u2(out, maxLocals);
+        u4(out, code.length);
+        out.write(code, 0, code.length);
+        u2(out, 0); // exception table
+        u2(out, 0); // code attributes
+    }
+
+    // bytecode of run(short[] ram, int[] regs): regs holds A and D on entry and exit
+    private static byte[] runCode(short[] rom, int start, int end) {
+        ByteArrayOutputStream c = new ByteArrayOutputStream();
+        // a = regs[0]; d = regs[1];
+        load(c, ALOAD, L_REGS); c.write(ICONST_0); c.write(IALOAD); load(c, ISTORE, L_A);
+        load(c, ALOAD, L_REGS); c.write(ICONST_1); c.write(IALOAD); load(c, ISTORE, L_D);
+        int jump = 0;
+        for (int pc = start; pc <= end; pc++) {
+            int instr = rom[pc];
+            if ((instr & 0x8000) == 0) {
+                // A-instruction: a = value
+                push(c, instr);
+                load(c, ISTORE, L_A);
+                continue;
+            }
+            boolean m = (instr & 0x1000) != 0;
+            // out = (short) comp, cases follow the order of Assembler.ASM_A_COMPS
+            switch (Emulator.opOf(instr)) {
+                case 0: c.write(ICONST_0); break;
+                case 1: c.write(ICONST_1); break;
+                case 2: c.write(ICONST_M1); break;
+                case 3: load(c, ILOAD, L_D); break;
+                case 4: loadY(c, m); break;
+                case 5: load(c, ILOAD, L_D); c.write(ICONST_M1); c.write(IXOR); break;
+                case 6: loadY(c, m); c.write(ICONST_M1); c.write(IXOR); break;
+                case 7: load(c, ILOAD, L_D); c.write(INEG); break;
+                case 8: loadY(c, m); c.write(INEG); break;
+                case 9: load(c, ILOAD, L_D); c.write(ICONST_1); c.write(IADD); break;
+                case 10: loadY(c, m); c.write(ICONST_1); c.write(IADD); break;
+                case 11: load(c, ILOAD, L_D); c.write(ICONST_1); c.write(ISUB); break;
+                case 12: loadY(c, m); c.write(ICONST_1); c.write(ISUB); break;
+                case 13: load(c, ILOAD, L_D); loadY(c, m); c.write(IADD); break;
+                case 14: load(c, ILOAD, L_D); loadY(c, m); c.write(ISUB); break;
+                case 15: loadY(c, m); load(c, ILOAD, L_D); c.write(ISUB); break;
+                case 16: load(c, ILOAD, L_D); loadY(c, m); c.write(IAND); break;
+                default: load(c, ILOAD, L_D); loadY(c, m); c.write(IOR); break;
+            }
+            c.write(I2S);
+            load(c, ISTORE, L_OUT);
+            // the jump target is A as it was before this instruction
+            if (pc == end) {
+                load(c, ILOAD, L_A);
+                load(c, ISTORE, L_TARGET);
+                jump = instr & 7;
+            }
+            if ((instr & 0x08) != 0) {
+                // ram[a & 0x7FFF] = out
+                load(c, ALOAD, L_RAM); address(c); load(c, ILOAD, L_OUT); c.write(SASTORE);
+            }
+            if ((instr & 0x10) != 0) {
+                load(c, ILOAD, L_OUT); load(c, ISTORE, L_D);
+            }
+            if ((instr & 0x20) != 0) {
+                load(c, ILOAD, L_OUT); load(c, ISTORE, L_A);
+            }
+        }
+        // regs[0] = a; regs[1] = d;
+        load(c, ALOAD, L_REGS); c.write(ICONST_0); load(c, ILOAD, L_A); c.write(IASTORE);
+        load(c, ALOAD, L_REGS); c.write(ICONST_1); load(c, ILOAD, L_D); c.write(IASTORE);
+        if (jump == 7) {
+            load(c, ILOAD, L_TARGET);
+            c.write(IRETURN);
+        } else if (jump != 0) {
+            // if (out <cond> 0) return target; return end + 1;
+            load(c, ILOAD, L_OUT);
+            c.write(JUMP_OPS[jump]);
+            u2(c, 3 + pushSize(end + 1) + 1);
+            push(c, end + 1);
+            c.write(IRETURN);
+            load(c, ILOAD, L_TARGET);
+            c.write(IRETURN);
+        } else {
+            push(c, end + 1);
+            c.write(IRETURN);
+        }
+        return c.toByteArray();
+    }
+
+    // push y, which is A or ram[a & 0x7FFF]
+    private static void loadY(ByteArrayOutputStream c, boolean m) {
+        if (m) {
+            load(c, ALOAD, L_RAM);
+            address(c);
+            c.write(SALOAD);
+        } else {
+            load(c, ILOAD, L_A);
+        }
+    }
+
+    // push a & 0x7FFF
+    private static void address(ByteArrayOutputStream c) {
+        load(c, ILOAD, L_A);
+        push(c, 0x7FFF);
+        c.write(IAND);
+    }
+
+    // write a load or store of a local variable slot
+    private static void load(ByteArrayOutputStream c, int op, int slot) {
+        c.write(op);
+        c.write(slot);
+    }
+
+    // push an int constant in 0..32767 onto the operand stack
+    private static void push(ByteArrayOutputStream c, int value) {
+        if (value >= 0 && value <= 5) {
+            c.write(ICONST_0 + value);
+        } else {
+            c.write(SIPUSH);
+            u2(c, value);
+        }
+    }
+
+    // number of bytes push writes for value
+    private static int pushSize(int value) {
+        return (value >= 0 && value <= 5) ? 1 : 3;
+    }
+
+    private static void u2(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void u4(ByteArrayOutputStream out, int v) {
+        u2(out, v >>> 16);
+        u2(out, v);
+    }
+
+    // constant pool holding only the Utf8, Class, NameAndType and Methodref entries a block needs
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> utf8s = new HashMap<String, Integer>();
+        private int count = 1; // constant pool indexes start at 1
+
+        private int utf8(String s) {
+            Integer index = this.utf8s.get(s);
+            if (index != null) return index;
+            byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            this.bytes.write(1);
+            u2(this.bytes, b.length);
+            this.bytes.write(b, 0, b.length);
+            this.utf8s.put(s, this.count);
+            return this.count++;
+        }
+
+        private int classRef(String name) {
+            int n = this.utf8(name);
+            this.bytes.write(7);
+            u2(this.bytes, n);
+            return this.count++;
+        }
+
+        private int methodRef(int owner, String name, String desc) {
+            int n = this.utf8(name), d = this.utf8(desc);
+            this.bytes.write(12);
+            u2(this.bytes, n);
+            u2(this.bytes, d);
+            int nameAndType = this.count++;
+            this.bytes.write(10);
+            u2(this.bytes, owner);
+            u2(this.bytes, nameAndType);
+            return this.count++;
+        }
+
+        private void write(ByteArrayOutputStream out) {
+            u2(out, this.count);
+            byte[] b = this.bytes.toByteArray();
+            out.write(b, 0, b.length);
+        }
+    }
+}
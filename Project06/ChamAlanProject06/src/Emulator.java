@@ -0,0 +1,349 @@
+/** Alan Cham
+ *  52011 Introduction to Computer Systems
+ *  Hack CPU emulator for the .hack and .rom files produced by the Assembler */
+
+import java.io.*;
+import java.util.*;
+
+public class Emulator {
+    private static final String HACK_EXT = ".hack"; // text rom file ext.
+    private static final String ROM_EXT = ".rom"; // packed rom file ext.
+    private static final String CYCLES_FLAG = "-cycles"; // option to limit the number of instructions run
+    private static final String JIT_FLAG = "-jit"; // option to compile hot basic blocks to JVM bytecode
+    private static final int JIT_THRESHOLD = 500; // entries into a block before it is compiled
+    private static final long DEFAULT_CYCLES = 1000000000L; // instructions run if no limit is given
+    static final int RAM_SIZE = 32768; // words of data memory, addressed by the low 15 bits of A
+    static final int SCREEN = 16384; // base address of the screen memory map
+    static final int KBD = 24576; // address of the keyboard memory map
+    private static final int C_BIT = 0x8000; // set for C-instructions, clear for A-instructions
+    private static final int M_BIT = 0x1000; // a-bit, set when the computation reads M
+    private static final int DEST_A = 0x20; // d1, store result in A
+    private static final int DEST_D = 0x10; // d2, store result in D
+    private static final int DEST_M = 0x08; // d3, store result in M
+    private static final int JUMP_LT = 4; // j1, jump if result < 0
+    private static final int JUMP_EQ = 2; // j2, jump if result = 0
+    private static final int JUMP_GT = 1; // j3, jump if result > 0
+    private static final int[] COMP_OPS = new int[128]; // index into Assembler.HACK_COMPS for each a+c code, or -1
+    private static final int NUM_COMPS = 18; // micro-ops 0..NUM_COMPS-1 compute on D and A
+    private static final int M_OPS = NUM_COMPS; // micro-ops M_OPS..M_OPS+NUM_COMPS-1 compute on D and M
+    private static final int LOAD_A = 2 * NUM_COMPS; // micro-op of an A-instruction
+    private static final int RAW_ALU = LOAD_A + 1; // micro-op of a computation with no mnemonic
+
+    // map each 7-bit a+c code to the position of its computation in the Assembler's tables
+    static {
+        // the micro-op switch in run has one case per row of the Assembler's tables
+        if (Assembler.HACK_COMPS.length != NUM_COMPS) {
+            throw new IllegalStateException("Assembler.HACK_COMPS no longer has " + NUM_COMPS + " computations");
+        }
+        Arrays.fill(COMP_OPS, -1);
+        for (int i = 0; i < Assembler.HACK_COMPS.length; i++) {
+            int code = Integer.parseInt(Assembler.HACK_COMPS[i], 2);
+            COMP_OPS[code] = i;
+            COMP_OPS[code | (M_BIT >> 6)] = i;
+        }
+    }
+
+    final short[] rom; // instruction memory
+    private final int[] uops; // pre-decoded micro-op of each rom word
+    private final int[] consts; // A-instruction value, or the raw word for RAW_ALU
+    private final byte[] dests; // d1..d3 bits of each C-instruction
+    private final byte[] jumps; // j1..j3 bits of each C-instruction
+    final short[] ram = new short[RAM_SIZE]; // data memory, including screen and keyboard maps
+    int a; // A register
+    int d; // D register
+    int pc; // program counter
+    long cycles; // instructions executed so far
+    boolean halted; // set once the program reaches an @n/0;JMP loop onto itself or runs off the rom
+    private BlockCompiler compiler; // created on the first call to runJit
+    private boolean[] leaders; // words that start a basic block: 0, jump targets and words after jumps
+    private CompiledBlock[] blocks; // compiled block entered at each word, or null
+    private int[] blockLengths; // number of instructions in each compiled block
+    private int[] heat; // entries into each word by the interpreter, or -1 if it cannot be compiled
+
+    // a basic block compiled by BlockCompiler; public so that classes in its own loader can implement it
+    public interface CompiledBlock {
+        // run the block with A in regs[0] and D in regs[1], update both, and return the next pc
+        int run(short[] ram, int[] regs);
+    }
+
+    Emulator(short[] rom) {
+        this.rom = rom;
+        this.uops = new int[rom.length];
+        this.consts = new int[rom.length];
+        this.dests = new byte[rom.length];
+        this.jumps = new byte[rom.length];
+        // rom cannot change while running, so every word is decoded exactly once
+        for (int i = 0; i < rom.length; i++) {
+            this.decode(i);
+        }
+    }
+
+    // index into Assembler.HACK_COMPS of the computation of a C-instruction, or -1 if it has no mnemonic
+    static int opOf(int instr) {
+        return COMP_OPS[(instr >> 6) & 0x7F];
+    }
+
+    // split the rom word at index i into a micro-op, constant, dest mask and jump mask
+    private void decode(int i) {
+        int instr = this.rom[i];
+        if ((instr & C_BIT) == 0) {
+            this.uops[i] = LOAD_A;
+            this.consts[i] = instr;
+            return;
+        }
+        int op = COMP_OPS[(instr >> 6) & 0x7F];
+        if (op == -1) {
+            this.uops[i] = RAW_ALU;
+            this.consts[i] = instr;
+        } else {
+            this.uops[i] = ((instr & M_BIT) != 0) ? M_OPS + op : op;
+        }
+        this.dests[i] = (byte) (instr & (DEST_A | DEST_D | DEST_M));
+        this.jumps[i] = (byte) (instr & (JUMP_LT | JUMP_EQ | JUMP_GT));
+    }
+
+    public static void main(String[] args) {
+        long maxCycles = DEFAULT_CYCLES;
+        boolean jit = false;
+        // options come before the file name
+        int fileArg = 0;
+        while (fileArg < args.length - 1) {
+            if (args[fileArg].equals(CYCLES_FLAG) && fileArg < args.length - 2) {
+                maxCycles = Long.parseLong(args[++fileArg]);
+            } else if (args[fileArg].equals(JIT_FLAG)) {
+                jit = true;
+            } else {
+                break;
+            }
+            fileArg++;
+        }
+        if (args.length != fileArg + 1 || !(args[fileArg].endsWith(HACK_EXT) || args[fileArg].endsWith(ROM_EXT))) {
+            System.err.println("Error: expected exactly one .hack or .rom file name.\ne.g. "
+                    + "java Emulator example.hack\n     java Emulator " + CYCLES_FLAG + " 1000000 " + JIT_FLAG + " example.rom");
+            System.exit(1);
+        }
+        File inFile = new File(args[fileArg]);
+        if (!inFile.exists()) {
+            System.err.println("Error: argument refers to file that does not exist.");
+            System.exit(1);
+        }
+        Emulator emu = new Emulator(load(inFile));
+        long start = System.nanoTime();
+        if (jit) {
+            emu.runJit(maxCycles);
+        } else {
+            emu.run(maxCycles);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println((emu.halted ? "Halted" : "Stopped") + " after " + emu.cycles + " instructions in "
+                + String.format("%.3f", seconds) + " s (" + String.format("%.1f", emu.cycles / seconds / 1e6) + " MIPS).");
+        System.out.println("PC=" + emu.pc + " A=" + emu.a + " D=" + emu.d);
+        for (int i = 0; i < 16; i++) {
+            System.out.println("RAM[" + i + "]=" + emu.ram[i]);
+        }
+    }
+
+    // read a .hack text file or a packed .rom image into an array of machine words
+    static short[] load(File inFile) {
+        if (inFile.getName().endsWith(ROM_EXT)) {
+            return Assembler.RomImage.read(inFile);
+        }
+        ArrayList<String> lines = new ArrayList<String>();
+        try (
+                BufferedReader br = new BufferedReader(new FileReader(inFile));
+        ) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error: encountered IOException when reading from input file.");
+            System.exit(1);
+        }
+        short[] rom = new short[lines.size()];
+        for (int i = 0; i < rom.length; i++) {
+            rom[i] = (short) Integer.parseInt(lines.get(i), 2);
+        }
+        return rom;
+    }
+
+    // set the value read from the keyboard memory map
+    void setKey(int key) {
+        this.ram[KBD] = (short) key;
+    }
+
+    // run at most maxCycles instructions, stopping early if the program halts
+    void run(long maxCycles) {
+        // keep registers and tables in locals so the loop does not touch fields
+        final short[] ram = this.ram;
+        final int[] uops = this.uops, consts = this.consts;
+        final byte[] dests = this.dests, jumps = this.jumps;
+        int a = this.a, d = this.d, pc = this.pc;
+        long n = 0;
+        boolean halted = false;
+        while (n < maxCycles) {
+            if (pc < 0 || pc >= uops.length) {
+                halted = true;
+                break;
+            }
+            n++;
+            int out;
+            // cases follow the order of Assembler.ASM_A_COMPS, then Assembler.ASM_M_COMPS
+            switch (uops[pc]) {
+                case LOAD_A: a = consts[pc]; pc++; continue;
+                case 0: out = 0; break;
+                case 1: out = 1; break;
+                case 2: out = -1; break;
+                case 3: out = d; break;
+                case 4: out = a; break;
+                case 5: out = ~d; break;
+                case 6: out = ~a; break;
+                case 7: out = -d; break;
+                case 8: out = -a; break;
+                case 9: out = d + 1; break;
+                case 10: out = a + 1; break;
+                case 11: out = d - 1; break;
+                case 12: out = a - 1; break;
+                case 13: out = d + a; break;
+                case 14: out = d - a; break;
+                case 15: out = a - d; break;
+                case 16: out = d & a; break;
+                case 17: out = d | a; break;
+                case M_OPS: out = 0; break;
+                case M_OPS + 1: out = 1; break;
+                case M_OPS + 2: out = -1; break;
+                case M_OPS + 3: out = d; break;
+                case M_OPS + 4: out = ram[a & 0x7FFF]; break;
+                case M_OPS + 5: out = ~d; break;
+                case M_OPS + 6: out = ~ram[a & 0x7FFF]; break;
+                case M_OPS + 7: out = -d; break;
+                case M_OPS + 8: out = -ram[a & 0x7FFF]; break;
+                case M_OPS + 9: out = d + 1; break;
+                case M_OPS + 10: out = ram[a & 0x7FFF] + 1; break;
+                case M_OPS + 11: out = d - 1; break;
+                case M_OPS + 12: out = ram[a & 0x7FFF] - 1; break;
+                case M_OPS + 13: out = d + ram[a & 0x7FFF]; break;
+                case M_OPS + 14: out = d - ram[a & 0x7FFF]; break;
+                case M_OPS + 15: out = ram[a & 0x7FFF] - d; break;
+                case M_OPS + 16: out = d & ram[a & 0x7FFF]; break;
+                case M_OPS + 17: out = d | ram[a & 0x7FFF]; break;
+                default: {
+                    int instr = consts[pc];
+                    out = alu(instr, d, ((instr & M_BIT) != 0) ? ram[a & 0x7FFF] : a);
+                    break;
+                }
+            }
+            out = (short) out;
+            int dest = dests[pc];
+            int target = a;
+            if (dest != 0) {
+                // M is written through the A register as it was before this instruction
+                if ((dest & DEST_M) != 0) ram[a & 0x7FFF] = (short) out;
+                if ((dest & DEST_D) != 0) d = out;
+                if ((dest & DEST_A) != 0) a = out;
+            }
+            int jump = jumps[pc];
+            if (jump != 0 && (jump & ((out < 0) ? JUMP_LT : (out == 0) ? JUMP_EQ : JUMP_GT)) != 0) {
+                // @n followed by 0;JMP at n+1 is the usual way to end a hack program
+                if (pc > 0 && target == pc - 1 && jump == 7 && uops[pc - 1] == LOAD_A && consts[pc - 1] == target) {
+                    pc = target;
+                    halted = true;
+                    break;
+                }
+                pc = target;
+            } else {
+                pc++;
+            }
+        }
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        this.cycles += n;
+        this.halted = halted;
+    }
+
+    // run at most maxCycles instructions like run, compiling blocks that are entered often to JVM bytecode
+    void runJit(long maxCycles) {
+        if (this.compiler == null) {
+            this.prepareJit();
+        }
+        int[] regs = new int[2];
+        long done = 0;
+        boolean entry = true;
+        this.halted = false;
+        while (done < maxCycles && !this.halted) {
+            int pc = this.pc;
+            if (pc < 0 || pc >= this.rom.length) {
+                this.halted = true;
+                break;
+            }
+            CompiledBlock block = this.blocks[pc];
+            if (block != null && maxCycles - done >= this.blockLengths[pc]) {
+                regs[0] = this.a;
+                regs[1] = this.d;
+                this.pc = block.run(this.ram, regs);
+                this.a = regs[0];
+                this.d = regs[1];
+                this.cycles += this.blockLengths[pc];
+                done += this.blockLengths[pc];
+                entry = true;
+                continue;
+            }
+            // only count entries, so the rest of a block does not get compiled on its own
+            if (entry && block == null && this.heat[pc] >= 0 && ++this.heat[pc] >= JIT_THRESHOLD) {
+                this.compileAt(pc);
+                if (this.blocks[pc] != null) continue;
+            }
+            // cold code: interpret one instruction
+            long before = this.cycles;
+            this.run(1);
+            done += this.cycles - before;
+            entry = this.pc != pc + 1 || (this.pc < this.leaders.length && this.leaders[this.pc]);
+        }
+    }
+
+    // find block leaders and allocate the per-word jit tables
+    private void prepareJit() {
+        int len = this.rom.length;
+        this.compiler = new BlockCompiler();
+        this.leaders = new boolean[len];
+        this.blocks = new CompiledBlock[len];
+        this.blockLengths = new int[len];
+        this.heat = new int[len];
+        if (len > 0) this.leaders[0] = true;
+        for (int i = 0; i < len; i++) {
+            if (this.uops[i] == LOAD_A || this.jumps[i] == 0) continue;
+            // the word after a jump, and the target of an @target / jump pair
+            if (i + 1 < len) this.leaders[i + 1] = true;
+            if (i > 0 && this.uops[i - 1] == LOAD_A && this.consts[i - 1] < len) {
+                this.leaders[this.consts[i - 1]] = true;
+            }
+        }
+    }
+
+    // compile the block entered at pc, or mark pc as not compilable
+    private void compileAt(int pc) {
+        int end = BlockCompiler.blockEnd(this.rom, this.leaders, pc);
+        // leave the @n/0;JMP halt loop to the interpreter, which can detect it
+        boolean haltLoop = end == pc + 1 && this.uops[pc] == LOAD_A && this.consts[pc] == pc && this.jumps[end] == 7;
+        CompiledBlock block = (end == -1 || haltLoop) ? null : this.compiler.compile(this.rom, pc, end);
+        if (block == null) {
+            this.heat[pc] = -1;
+            return;
+        }
+        this.blocks[pc] = block;
+        this.blockLengths[pc] = end - pc + 1;
+    }
+
+    // evaluate a control-bit combination that has no mnemonic, as the ALU chip would
+    private static int alu(int instr, int x, int y) {
+        if ((instr & 0x800) != 0) x = 0; // zx
+        if ((instr & 0x400) != 0) x = ~x; // nx
+        if ((instr & 0x200) != 0) y = 0; // zy
+        if ((instr & 0x100) != 0) y = ~y; // ny
+        int out = ((instr & 0x80) != 0) ? x + y : x & y; // f
+        if ((instr & 0x40) != 0) out = ~out; // no
+        return out;
+    }
+}
@@ -0,0 +1,182 @@
+/** Alan Cham
+ *  Project 7: VM1 - Stack Arithmetic
+ *  Byte-level scanner for the -mmap option, shared with Project 8: VM2
+ **/
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+// reads the lines of a memory-mapped .vm file as Parser.clean and Command(String) see them, but without
+// making substrings: tokens are found in place, matched against known tokens by their first byte, and only
+// names are turned into (interned) Strings. Bytes of 0x80 and above belong to tokens, as the non-ASCII chars
+// they encode do when FileReader decodes the file, and names holding them are decoded the same way.
+class ByteScanner {
+    static final int MAX_TOKENS = 3; // a command and its two arguments; later tokens on a line are ignored
+
+    // known tokens, such as command types or segments, grouped by the lower-case first char of their text
+    static class Table<T> {
+        private final String[][] texts = new String[128][]; // texts by first char
+        private final Object[][] values = new Object[128][]; // values by first char, each a T
+
+        // adds a token
+        // args:    String text - lower-case ASCII text of the token
+        //          T value - value returned by find when a scanned token spells text
+        void put(String text, T value) {
+            int first = text.charAt(0);
+            int n = (this.texts[first] == null) ? 0 : this.texts[first].length;
+            this.texts[first] = Arrays.copyOf(n == 0 ? new String[0] : this.texts[first], n + 1);
+            this.values[first] = Arrays.copyOf(n == 0 ? new Object[0] : this.values[first], n + 1);
+            this.texts[first][n] = text;
+            this.values[first][n] = value;
+        }
+    }
+
+    private final ByteBuffer buf; // contents of the file
+    private final int limit; // size of the file
+    private int pos = 0; // index of the next unread byte
+    private int count = 0; // number of tokens on the current line
+    private final int[] starts = new int[MAX_TOKENS]; // index of the first byte of each token
+    private final int[] ends = new int[MAX_TOKENS]; // index after the last byte of each token
+    private int lineStart = 0; // index of the first token of the current line
+    private int lineEnd = 0; // index after the current line, before any comment
+    private char[] chars = new char[64]; // scratch space for names
+
+    // constructor
+    // arg: ByteBuffer buf - contents of a .vm file, usually a MappedByteBuffer
+    ByteScanner(ByteBuffer buf) {
+        this.buf = buf;
+        this.limit = buf.limit();
+    }
+
+    // moves to the next line holding a token, skipping empty and comment-only lines
+    // returns: boolean - true if a line was found, false at the end of the file
+    boolean nextLine() {
+        while (this.pos < this.limit) {
+            this.count = 0;
+            this.skipBlanks();
+            this.lineStart = this.pos;
+            while (this.count < MAX_TOKENS) {
+                this.skipBlanks();
+                int end = this.tokenEnd();
+                if (end == this.pos) break;
+                this.starts[this.count] = this.pos;
+                this.ends[this.count] = end;
+                this.count++;
+                this.pos = end;
+            }
+            this.lineEnd = this.findLineEnd();
+            this.skipLine();
+            if (this.count > 0) return true;
+        }
+        return false;
+    }
+
+    // returns the number of tokens on the current line, at most MAX_TOKENS
+    int tokens() {
+        return this.count;
+    }
+
+    // determines if a token spells a text, ignoring case as Command(String) does
+    // args:    int t - index of the token on the current line
+    //          String text - lower-case ASCII text
+    // returns: boolean - true if the token matches text
+    boolean matches(int t, String text) {
+        if (this.ends[t] - this.starts[t] != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if ((this.byteAt(this.starts[t] + i) | 0x20) != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // returns the value of the Table entry that a token spells, or null if it spells none
+    @SuppressWarnings("unchecked")
+    <T> T find(int t, Table<T> table) {
+        int first = this.byteAt(this.starts[t]) | 0x20;
+        if (first >= 128 || table.texts[first] == null) return null;
+        String[] texts = table.texts[first];
+        for (int i = 0; i < texts.length; i++) {
+            if (this.matches(t, texts[i])) return (T) table.values[first][i];
+        }
+        return null;
+    }
+
+    // returns a token as an interned String
+    String name(int t) {
+        return this.text(this.starts[t], this.ends[t]).intern();
+    }
+
+    // parses a token as a decimal int, as Integer.parseInt would
+    int number(int t) {
+        int start = this.starts[t];
+        int end = this.ends[t];
+        boolean negative = this.byteAt(start) == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = this.byteAt(i) - '0';
+            if (digit < 0 || digit > 9 || (negative && end - start == 1)) {
+                throw new NumberFormatException("For input string: \"" + this.name(t) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // returns the text of the current line without its comment, for error messages
+    String line() {
+        return this.text(this.lineStart, this.lineEnd).trim();
+    }
+
+    // returns a byte of the file as an unsigned value, so that bytes of 0x80 and above compare above ' '
+    private int byteAt(int i) {
+        return this.buf.get(i) & 0xFF;
+    }
+
+    // returns bytes [start, end) as a String, decoded with the default charset as FileReader does if any is not ASCII
+    private String text(int start, int end) {
+        if (end - start > this.chars.length) this.chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            int b = this.byteAt(i);
+            if (b >= 0x80) {
+                byte[] bytes = new byte[end - start];
+                for (int j = start; j < end; j++) bytes[j - start] = this.buf.get(j);
+                return new String(bytes, Charset.defaultCharset());
+            }
+            this.chars[i - start] = (char) b;
+        }
+        return new String(this.chars, 0, end - start);
+    }
+
+    // skips spaces, tabs and other control bytes, but not the end of the line
+    private void skipBlanks() {
+        while (this.pos < this.limit) {
+            int b = this.byteAt(this.pos);
+            if (b == '\n' || b > ' ') return;
+            this.pos++;
+        }
+    }
+
+    // moves past the end of the current line
+    private void skipLine() {
+        while (this.pos < this.limit && this.byteAt(this.pos++) != '\n') {}
+    }
+
+    // returns the end of the token starting at pos: the next blank, line end or comment
+    private int tokenEnd() {
+        int i = this.pos;
+        while (i < this.limit) {
+            int b = this.byteAt(i);
+            if (b <= ' ' || (b == '/' && i + 1 < this.limit && this.byteAt(i + 1) == '/')) break;
+            i++;
+        }
+        return i;
+    }
+
+    // returns the end of the current line from pos, before any comment
+    private int findLineEnd() {
+        int i = this.pos;
+        while (i < this.limit && this.byteAt(i) != '\n'
+                && !(this.byteAt(i) == '/' && i + 1 < this.limit && this.byteAt(i + 1) == '/')) i++;
+        return i;
+    }
+}
@@ -5,6 +5,8 @@
  **/
 
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 
 public class VM1 {
@@ -13,6 +15,12 @@ public class VM1 {
     private static final String INPUT_EXT = ".vm"; // input file extension
     private static final String OUTPUT_EXT = ".asm"; // output file extension
     private static final int DEFAULT_ARG2 = 0; // default value of command's arg2
+    private static final String SHARED_COMPARE_FLAG = "-sharedcmp"; // option to route eq/gt/lt through shared code
+    private static final String COMPARE_ROUTINE = "$$"; // prefix of the shared eq/gt/lt routine labels
+    private static final String MMAP_FLAG = "-mmap"; // option to parse by scanning a memory-mapped file
+
+    private static boolean sharedCompares = false; // when true, eq/gt/lt jump to the COMPARE_ROUTINE routines
+    private static boolean mappedParse = false; // when true, Parser reads commands with ByteScanner
 
     // enumeration of memory segment types
     private enum SEGMENT_SUPERTYPE {
@@ -87,11 +95,17 @@ public class VM1 {
     // constructs a Parser to parse the VM input file
     // constructs a CodeWriter to generate code into outut file
     public static void main(String[] args) {
-        if (args.length != 1) { // check that there's exactly 1 argument
+        int first = 0; // index of the first argument after the options
+        while (first < args.length && (args[first].equals(SHARED_COMPARE_FLAG) || args[first].equals(MMAP_FLAG))) {
+            if (args[first].equals(SHARED_COMPARE_FLAG)) sharedCompares = true; // check for the optional flags
+            else mappedParse = true;
+            first++;
+        }
+        if (args.length - first != 1) { // check that there's exactly 1 argument
             System.err.println("Error: expected exactly one command-line argument, the input .vm file name.");
             System.exit(1);
         }
-        String inputName = args[0]; // store input file name
+        String inputName = args[first]; // store input file name
         if (!inputName.endsWith(INPUT_EXT)) { // check file has right type
             System.err.println("Error: input file does not end in " + INPUT_EXT);
             System.exit(1);
@@ -120,6 +134,18 @@ public class VM1 {
         // arg: File vmFile - input .vm file
         private Parser(File vmFile) {
             this.commandList = new LinkedList<Command>(); // new linkedlist to hold commands
+            if (mappedParse) { // scan the bytes of the mapped file instead of reading lines
+                try (FileChannel channel = FileChannel.open(vmFile.toPath(), StandardOpenOption.READ)) {
+                    if (DBG) System.out.println("Parsing file: " + vmFile.getCanonicalPath());
+                    ByteScanner scanner = new ByteScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                    for (Command c = Command.scan(scanner); c != null; c = Command.scan(scanner)) this.commandList.add(c);
+                    this.iter = this.commandList.listIterator(0); // set iterator to start of linkedlist
+                } catch (IOException ioe) {
+                    System.err.println("Error: IOException when mapping input file " + vmFile.getPath());
+                    System.exit(1);
+                }
+                return;
+            }
             try(
                     FileReader fr = new FileReader(vmFile); // new Reader for input file
                     BufferedReader br = new BufferedReader(fr); // new bufferedreader for retrieving each input line
@@ -229,12 +255,20 @@ public class VM1 {
                 String translated = null;
                 String name = asmFile.getName();
                 name = name.substring(0, name.lastIndexOf(".")); // name of file for identifying static variables
+                if (sharedCompares) { // shared routines go first, so jump over them
+                    pw.println("@" + name + ".START");
+                    pw.println("0;JMP");
+                    pw.print(buildCompareRoutine("EQ", "JEQ"));
+                    pw.print(buildCompareRoutine("GT", "JLT"));
+                    pw.print(buildCompareRoutine("LT", "JGT"));
+                    pw.println("(" + name + ".START)");
+                }
                 while (parsed.hasMoreCommands()) {
                     parsed.advance(); // set current command to next one
-                    if (DBG) System.out.println(parsed.currentCommand.line);
+                    if (DBG) System.out.println(parsed.currentCommand);
                     translated = vmToASM(parsed.currentCommand, identifier, name);
                     if (translated == null || translated.isEmpty()) {
-                        System.err.println("Error: failed to translate line: " + parsed.currentCommand.line);
+                        System.err.println("Error: failed to translate line: " + parsed.currentCommand);
                     } else {
                         pw.print(translated); // write translated .asm line to file
                         identifier++;
@@ -278,13 +312,16 @@ public class VM1 {
                     sb.append("M=-M\n");
                     break;
                 case EQ:
-                    buildEQ(sb, identifier);
+                    if (sharedCompares) buildSharedCompare(sb, identifier, "EQ");
+                    else buildEQ(sb, identifier);
                     break;
                 case GT:
-                    buildGT(sb, identifier);
+                    if (sharedCompares) buildSharedCompare(sb, identifier, "GT");
+                    else buildGT(sb, identifier);
                     break;
                 case LT:
-                    buildLT(sb, identifier);
+                    if (sharedCompares) buildSharedCompare(sb, identifier, "LT");
+                    else buildLT(sb, identifier);
                     break;
                 case AND:
                     sb.append("@SP\n");
@@ -497,6 +534,47 @@ public class VM1 {
             sb.append("A=M-1\n");
             sb.append("M=D\n"); // write D into top of stack
         }
+
+        // convert eq, gt or lt command to asm string that jumps to its shared routine
+        // args:    StringBuilder sb - where the output asm code of this function is stored
+        //          int identifier - number used for distinguishing labels
+        //          String type - EQ, GT or LT, the name of the shared routine
+        private static void buildSharedCompare(StringBuilder sb, int identifier, String type) {
+            String returnLabel = "RETURN." + identifier;
+            sb.append("@" + returnLabel + "\n");
+            sb.append("D=A\n"); // pass return address in D
+            sb.append("@" + COMPARE_ROUTINE + type + "\n");
+            sb.append("0;JMP\n");
+            sb.append("(" + returnLabel + ")\n");
+        }
+
+        // build shared routine for eq, gt or lt, which returns to the address passed in D
+        // args:    String type - EQ, GT or LT, the name of the routine
+        //          String jump - jump mnemonic that is taken when the comparison is true
+        // returns: String containing asm code of the routine
+        private static String buildCompareRoutine(String type, String jump) {
+            StringBuilder sb = new StringBuilder();
+            String routine = COMPARE_ROUTINE + type;
+            sb.append("(" + routine + ")\n");
+            sb.append("@R15\n");
+            sb.append("M=D\n"); // save return address
+            sb.append("@SP\n");
+            sb.append("AM=M-1\n");
+            sb.append("D=M\n");
+            sb.append("A=A-1\n");
+            sb.append("D=D-M\n");
+            sb.append("M=-1\n"); // assume true
+            sb.append("@" + routine + ".END\n");
+            sb.append("D;" + jump + "\n");
+            sb.append("@SP\n");
+            sb.append("A=M-1\n");
+            sb.append("M=0\n"); // overwrite with 0 if false
+            sb.append("(" + routine + ".END)\n");
+            sb.append("@R15\n");
+            sb.append("A=M\n");
+            sb.append("0;JMP\n"); // return to caller
+            return sb.toString();
+        }
     }
 
     // class that bundles a command's type, and arguments
@@ -507,6 +585,36 @@ public class VM1 {
         int arg2 = DEFAULT_ARG2; // command's second argument
         SEGMENT segment = null;
 
+        // command types and segments by the first char of their token, for ByteScanner
+        private static final ByteScanner.Table<COMMAND_TYPE> COMMANDS = new ByteScanner.Table<COMMAND_TYPE>();
+        private static final ByteScanner.Table<SEGMENT> SEGMENTS = new ByteScanner.Table<SEGMENT>();
+        static {
+            for (COMMAND_TYPE c : COMMAND_TYPE.values()) {
+                if (!c.token.isEmpty()) COMMANDS.put(c.token, c);
+            }
+            for (SEGMENT seg : SEGMENT.values()) SEGMENTS.put(seg.token, seg);
+        }
+
+        // creates an empty Command instance, filled in by scan
+        private Command() {}
+
+        // reads the next command of a memory-mapped file, giving the same Command as clean and Command(String)
+        // arg:     ByteScanner scanner - scanner of the input file
+        // returns: Command - next command, or null at the end of the file
+        private static Command scan(ByteScanner scanner) {
+            if (!scanner.nextLine()) return null;
+            Command c = new Command();
+            c.type = scanner.find(0, COMMANDS);
+            if (c.type == null) c.type = COMMAND_TYPE.OTHER;
+            if (scanner.tokens() > 1) {
+                if (c.type == COMMAND_TYPE.PUSH || c.type == COMMAND_TYPE.POP) c.segment = scanner.find(1, SEGMENTS);
+                c.arg1 = (c.segment != null) ? c.segment.token : scanner.name(1);
+                if (scanner.tokens() > 2) c.arg2 = scanner.number(2);
+            }
+            if (c.type == COMMAND_TYPE.OTHER) c.line = scanner.line(); // keep text for errors
+            return c;
+        }
+
         // creates a Command instance from cleaned input line of .vm file
         // args:    String line - cleaned line of .vm file to be parsed into a Command object
         private Command(String line) {
@@ -537,6 +645,7 @@ public class VM1 {
         // get segment type
         // access the segment field of this Command instance
         private SEGMENT getSegment() {
+            if (this.segment != null) return this.segment; // already set by scan
             if (this.arg1 == null) {
                 System.err.println("Error: tried to get segment type of null arg1.");
                 return (this.segment = null);
@@ -549,5 +658,13 @@ public class VM1 {
             System.err.println("Error: arg1 does not match any known segment.");
             return (this.segment = null);
         }
+
+        // returns the original line, or for commands made by scan the same text rebuilt from the fields
+        public String toString() {
+            if (this.line != null) return this.line;
+            if (this.arg1 == null) return this.type.token;
+            if (this.type.supertype == CMD_SUPERTYPE.PROGRAM_FLOW) return this.type.token + " " + this.arg1;
+            return this.type.token + " " + this.arg1 + " " + this.arg2;
+        }
     }
 }
\ No newline at end of file
@@ -5,6 +5,11 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
 
 public class VM2 {
 
@@ -12,6 +17,41 @@ public class VM2 {
     private static final String INPUT_EXT = ".vm";      // input file extension
     private static final String OUTPUT_EXT = ".asm";    // output file extension
     private static final int DEFAULT_ARG2 = 0;          // default value of command's arg2
+    private static final String RUN_FLAG = "-run";      // option to interpret the .vm files instead of translating
+    private static final String STEPS_FLAG = "-steps";  // option to limit the number of commands interpreted
+    private static final long DEFAULT_STEPS = 1000000000L; // commands interpreted if no limit is given
+    private static final String SHARED_CALL_FLAG = "-sharedcall"; // option to route call/return through shared code
+    private static final String CALL_ROUTINE = "$$CALL";       // label of the shared call routine
+    private static final String RETURN_ROUTINE = "$$RETURN";   // label of the shared return routine
+    private static final String SHARED_COMPARE_FLAG = "-sharedcmp"; // option to route eq/gt/lt through shared code
+    private static final String COMPARE_ROUTINE = "$$";        // prefix of the shared eq/gt/lt routine labels
+    private static final String PEEPHOLE_FLAG = "-peephole";   // option to optimize the generated asm before writing
+    private static final String OPT_FLAG = "-opt";             // option naming the Optimizer passes to run
+    private static final String CACHE_TOP_FLAG = "-cachetop";  // option to keep the stack top in D between commands
+    private static final String PARALLEL_FLAG = "-parallel";   // option to parse and translate files on a ForkJoinPool
+    private static final String CACHE_FLAG = "-cache";         // option to reuse translations of unchanged files
+    private static final String MMAP_FLAG = "-mmap";           // option to parse by scanning a memory-mapped file
+    private static final String HACK_FLAG = "-hack";           // option to write .hack machine code instead of .asm
+    private static final String ROM_FLAG = "-rom";             // option to write a packed .rom image instead of .asm
+    private static final String HACK_EXT = ".hack";            // output file extension with -hack
+    private static final String ROM_EXT = ".rom";              // output file extension with -rom
+    private static final String STREAM_FLAG = "-stream";       // option to translate one command at a time
+    private static final int STREAM_BUFFER = 1 << 20;          // chars buffered before each write with -stream
+    private static final String[] OPT_PASSES = {"mul", "fold", "jump", "dce"}; // pass names, in the order they run
+    private static final String ALL_PASSES = "all";            // -opt argument that selects every pass
+
+    private static boolean runMode = false;             // when true, interpret instead of translating
+    private static long maxSteps = DEFAULT_STEPS;       // most commands interpreted in run mode
+    private static boolean sharedCalls = false;         // when true, call sites jump to CALL_ROUTINE/RETURN_ROUTINE
+    private static boolean sharedCompares = false;      // when true, eq/gt/lt jump to the COMPARE_ROUTINE routines
+    private static boolean peephole = false;            // when true, CodeWriter output goes through Peephole
+    private static boolean[] optPasses = new boolean[OPT_PASSES.length]; // which Optimizer passes are selected
+    private static boolean cacheTop = false;            // when true, commands are translated by StackCache
+    private static boolean parallel = false;            // when true, each file is a task with its own label numbers
+    private static boolean cacheMode = false;           // when true, unchanged files are read from TranslationCache
+    private static boolean mappedParse = false;         // when true, Parser reads commands with ByteScanner
+    private static String binaryExt = null;             // HACK_EXT or ROM_EXT when HackWriter assembles the output
+    private static boolean streamMode = false;          // when true, Parser reads each command as it is translated
 
     /** Enumeration of memory segment types */
     private enum SEGMENT_SUPERTYPE {
@@ -106,26 +146,66 @@ public class VM2 {
     /** Constructs a Parser to parse the VM input file
      *  Then constructs a CodeWriter to write asm code into outut file */
     public static void main(String[] args) {
+        // strip leading options before validating the file names
+        args = parseOptions(args);
         // validate arguments or else terminate
         if (!validArgs(args)) System.exit(1);
+        // output file name based on parent directory's name
+        File parent = new File(args[0]).getParentFile();
+        File asmFile = new File(parent, parent.getName() + (binaryExt == null ? OUTPUT_EXT : binaryExt));
+        // with -cache, files whose translation is cached are not parsed at all
+        String[] fragments = new String[args.length];
+        String[] keys = new String[args.length];
+        File cacheDir = TranslationCache.directory(asmFile);
         // allocate array of parsed input files
         Parser[] parsedInputFiles = new Parser[args.length];
+        ParseTask[] tasks = new ParseTask[args.length];
+        File[] vmFiles = new File[args.length];
         // check that each input file exists, then parse
         for (int i = 0; i < args.length; i++) {
             File vmFile = new File(args[i]);
+            vmFiles[i] = vmFile;
             if (!vmFile.exists()) {
                 System.err.println("Error: file \"" + args[i] + "\" does not exist.");
                 System.exit(1);
             }
+            // with -stream, CodeWriter opens each file only when it reaches it
+            if (streamMode) continue;
+            if (cacheMode && !runMode) {
+                keys[i] = TranslationCache.key(vmFile);
+                fragments[i] = TranslationCache.read(cacheDir, vmFile, keys[i]);
+                if (fragments[i] != null) continue;
+            }
             // parse input file, since it exists
-           parsedInputFiles[i] = new Parser(vmFile);
+            if (parallel) {
+                tasks[i] = new ParseTask(vmFile);
+                ForkJoinPool.commonPool().execute(tasks[i]);
+            } else {
+                parsedInputFiles[i] = new Parser(vmFile);
+            }
+        }
+        // collect the parsed files in input order
+        if (parallel) {
+            for (int i = 0; i < args.length; i++) {
+                if (tasks[i] != null) parsedInputFiles[i] = tasks[i].join();
+            }
+        }
+        // rewrite the parsed commands with the selected passes
+        if (!streamMode) Optimizer.optimize(parsedInputFiles);
+        // execute the parsed commands directly instead of writing assembly
+        if (runMode) {
+            Interpreter vm = new Interpreter(parsedInputFiles);
+            long start = System.nanoTime();
+            vm.run(maxSteps);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println((vm.halted ? "Halted" : "Stopped") + " after " + vm.steps + " commands in "
+                    + String.format("%.3f", seconds) + " s.");
+            for (int i = 0; i < 16; i++) System.out.println("RAM[" + i + "]=" + vm.ram[i]);
+            return;
         }
-        // output file name based on parent directory's name
-        File inFile = parsedInputFiles[0].vmFile;
-        File parent = inFile.getParentFile();
-        File asmFile = new File(parent, parent.getName() + OUTPUT_EXT);
         // translate and write to output file
-        CodeWriter cw = new CodeWriter(asmFile, parsedInputFiles);
+        CodeWriter cw = streamMode ? new CodeWriter(asmFile, vmFiles) : new CodeWriter(asmFile, parsedInputFiles, fragments);
+        if (cacheMode) TranslationCache.update(cacheDir, args, keys, fragments, parsedInputFiles);
         try {
             System.out.println("Finished writing file \"" + asmFile.getCanonicalPath() + "\".");
         } catch (IOException ioe) {
@@ -133,6 +213,73 @@ public class VM2 {
         }
     }
 
+    /** Sets the option fields from the leading command-line arguments
+     *  Args:       String[] args - the array of input arguments
+     *  Returns:    String[] - the arguments that follow the options */
+    private static String[] parseOptions(String[] args) {
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (args[i].equals(RUN_FLAG)) {
+                runMode = true;
+            } else if (args[i].equals(STEPS_FLAG) && i + 1 < args.length) {
+                maxSteps = Long.parseLong(args[++i]);
+            } else if (args[i].equals(SHARED_CALL_FLAG)) {
+                sharedCalls = true;
+            } else if (args[i].equals(SHARED_COMPARE_FLAG)) {
+                sharedCompares = true;
+            } else if (args[i].equals(PEEPHOLE_FLAG)) {
+                peephole = true;
+            } else if (args[i].equals(CACHE_TOP_FLAG)) {
+                cacheTop = true;
+            } else if (args[i].equals(PARALLEL_FLAG)) {
+                parallel = true;
+            } else if (args[i].equals(CACHE_FLAG)) {
+                cacheMode = true;
+            } else if (args[i].equals(MMAP_FLAG)) {
+                mappedParse = true;
+            } else if (args[i].equals(HACK_FLAG)) {
+                binaryExt = HACK_EXT;
+            } else if (args[i].equals(ROM_FLAG)) {
+                binaryExt = ROM_EXT;
+            } else if (args[i].equals(STREAM_FLAG)) {
+                streamMode = true;
+            } else if (args[i].equals(OPT_FLAG) && i + 1 < args.length) {
+                selectPasses(args[++i]);
+            } else {
+                System.err.println("Error: unknown option \"" + args[i] + "\".");
+                System.exit(1);
+            }
+            i++;
+        }
+        // these options need every command or all of the output in memory at once
+        boolean anyPass = false;
+        for (boolean pass : optPasses) anyPass |= pass;
+        if (streamMode && (runMode || anyPass || peephole || parallel || cacheMode || binaryExt != null)) {
+            System.err.println("Error: " + STREAM_FLAG + " cannot be used with " + RUN_FLAG + ", " + OPT_FLAG + ", "
+                    + PEEPHOLE_FLAG + ", " + PARALLEL_FLAG + ", " + CACHE_FLAG + ", " + HACK_FLAG + " or " + ROM_FLAG + ".");
+            System.exit(1);
+        }
+        return Arrays.copyOfRange(args, i, args.length);
+    }
+
+    /** Sets optPasses from the argument of -opt
+     *  Args:       String list - comma-separated pass names, or "all"
+     *  Returns:    void */
+    private static void selectPasses(String list) {
+        for (String name : list.split(",")) {
+            int pass = Arrays.asList(OPT_PASSES).indexOf(name);
+            if (name.equals(ALL_PASSES)) {
+                Arrays.fill(optPasses, true);
+            } else if (pass >= 0) {
+                optPasses[pass] = true;
+            } else {
+                System.err.println("Error: unknown optimizer pass \"" + name + "\", expected one of "
+                        + Arrays.toString(OPT_PASSES) + " or " + ALL_PASSES + ".");
+                System.exit(1);
+            }
+        }
+    }
+
     /** Validates the command-line inputs
      *  Args:       String[] args - the array of input arguments
      *  Returns:    boolean - true if inputs are valid, false otherwise */
@@ -159,13 +306,32 @@ public class VM2 {
         LinkedList<Command> commandList = null; // linkedlist of input commands
         Command currentCommand = null;          // current command
         ListIterator<Command> iter = null;      // iterator for linkedlist of input lines
+        BufferedReader reader = null;           // with -stream, the open input file
+        ByteScanner scanner = null;             // with -stream and -mmap, the scanner of the mapped input file
+        Command nextCommand = null;             // with -stream, the command read ahead of currentCommand
 
         /** Constructor: loads input file and stores all commands in linkedlist
+         *  With -stream, only opens the file, and commands are read one at a time by advance
          *  Args:       File vmFile - input .vm file
          *  Returns:    Parser - new instance of Parser */
         private Parser(File vmFile) {
             this.vmFile = vmFile;
+            if (streamMode) {
+                this.open();
+                return;
+            }
             this.commandList = new LinkedList<Command>();
+            if (mappedParse) {
+                try (FileChannel channel = FileChannel.open(vmFile.toPath(), StandardOpenOption.READ)) {
+                    ByteScanner scanner = new ByteScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                    for (Command c = Command.scan(scanner); c != null; c = Command.scan(scanner)) this.commandList.add(c);
+                    this.iter = this.commandList.listIterator(0);
+                } catch (IOException ioe) {
+                    System.err.println("Error: IOException when mapping input file " + vmFile.getPath());
+                    System.exit(1);
+                }
+                return;
+            }
             try(
                     FileReader fr = new FileReader(vmFile);
                     BufferedReader br = new BufferedReader(fr);
@@ -188,10 +354,52 @@ public class VM2 {
             }
         }
 
+        /** Opens the input file for -stream and reads the first command
+         *  Args:       void
+         *  Returns:    void */
+        private void open() {
+            try {
+                if (mappedParse) {
+                    try (FileChannel channel = FileChannel.open(this.vmFile.toPath(), StandardOpenOption.READ)) {
+                        // the mapping stays valid after the channel is closed
+                        this.scanner = new ByteScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                    }
+                } else {
+                    this.reader = new BufferedReader(new FileReader(this.vmFile));
+                }
+            } catch (FileNotFoundException fnfe) {
+                System.err.println("Error: FileNotFoundException for input file " + this.vmFile.getPath());
+                System.exit(1);
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when mapping input file " + this.vmFile.getPath());
+                System.exit(1);
+            }
+            this.nextCommand = this.read();
+        }
+
+        /** Reads the next command from the input file for -stream, closing the file at its end
+         *  Args:       void
+         *  Returns:    Command - the next command, or null if there are no more */
+        private Command read() {
+            if (this.scanner != null) return Command.scan(this.scanner);
+            try {
+                for (String line = this.reader.readLine(); line != null; line = this.reader.readLine()) {
+                    line = clean(line);
+                    if (!line.isEmpty()) return new Command(line);
+                }
+                this.reader.close();
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when reading from input file.");
+                System.exit(1);
+            }
+            return null;
+        }
+
         /** Checks if there are more commands to read
          *  Args:       void
          *  Returns:    boolean - true if there are more commands, false otherwise */
         private boolean hasMoreCommands() {
+            if (streamMode) return this.nextCommand != null;
             if (this.iter == null) return false;
             return this.iter.hasNext();
         }
@@ -200,7 +408,12 @@ public class VM2 {
          *  Args:       void
          *  Returns:    boolean - true if successfully advanced, false otherwise */
         private boolean advance() {
-            if (this.iter.hasNext()) {
+            if (streamMode && this.nextCommand != null) {
+                this.currentCommand = this.nextCommand;
+                this.nextCommand = this.read();
+                return true;
+            }
+            if (!streamMode && this.iter.hasNext()) {
                 // advance to next command if available
                 this.currentCommand = this.iter.next();
                 return true;
@@ -234,6 +447,266 @@ public class VM2 {
         }
     }
 
+    /** Rewrites the parsed commands of each file before translation or interpretation
+     *  Each pass in OPT_PASSES runs only if selected with -opt, and reports how many commands it removed,
+     *  except mul, which can add commands and reports how many multiplications it replaced */
+    private static class Optimizer {
+
+        private static final int MUL = 0, FOLD = 1, JUMP = 2, DCE = 3;  // indexes into OPT_PASSES
+        private static final String MULTIPLY = "Math.multiply";         // OS function replaced by the mul pass
+        private static final int MAX_MULTIPLIER = 4;                    // largest power of two turned into adds,
+                                                                        // since x is pushed again for each copy
+        private static final int MAX_CONSTANT = 32767;                  // largest operand of push constant
+
+        /** Runs the selected passes over every parsed file
+         *  Args:       Parser[] parsedInputFiles - parsed input files, whose command lists are replaced
+         *  Returns:    void */
+        private static void optimize(Parser[] parsedInputFiles) {
+            int[] removed = new int[OPT_PASSES.length]; // for mul, the number of calls replaced
+            for (Parser p : parsedInputFiles) {
+                // files read from TranslationCache are not parsed
+                if (p == null) continue;
+                ArrayList<Command> commands = new ArrayList<Command>(p.commandList);
+                for (int pass = 0; pass < OPT_PASSES.length; pass++) {
+                    if (!optPasses[pass]) continue;
+                    int before = (pass == MUL) ? countMultiplies(commands) : commands.size();
+                    if (pass == MUL) commands = reduceMultiply(commands);
+                    else if (pass == FOLD) commands = foldConstants(commands);
+                    else if (pass == JUMP) commands = threadJumps(commands);
+                    else commands = removeDeadCode(commands);
+                    removed[pass] += before - ((pass == MUL) ? countMultiplies(commands) : commands.size());
+                }
+                p.commandList = new LinkedList<Command>(commands);
+                p.iter = p.commandList.listIterator(0);
+            }
+            for (int pass = 0; pass < OPT_PASSES.length; pass++) {
+                if (!optPasses[pass]) continue;
+                if (pass == MUL) {
+                    System.out.println("Optimizer: " + OPT_PASSES[pass] + " replaced " + removed[pass] + " calls to " + MULTIPLY + ".");
+                } else {
+                    System.out.println("Optimizer: " + OPT_PASSES[pass] + " removed " + removed[pass] + " commands.");
+                }
+            }
+        }
+
+        /** Returns the number of calls to Math.multiply in a list of commands */
+        private static int countMultiplies(ArrayList<Command> commands) {
+            int count = 0;
+            for (Command c : commands) {
+                if (c.type == COMMAND_TYPE.CALL && c.arg1.equals(MULTIPLY)) count++;
+            }
+            return count;
+        }
+
+        /** Replaces multiplication of a pushed value by 0, 1, 2 or 4 with pushes and adds
+         *  The pushed value is read again instead of being copied, so only simple pushes are reduced; the VM
+         *  language has no dup, so doubling would need a scratch segment, and larger powers of two are left as calls
+         *  Args:       ArrayList<Command> commands - commands of one file
+         *  Returns:    ArrayList<Command> - rewritten commands */
+        private static ArrayList<Command> reduceMultiply(ArrayList<Command> commands) {
+            ArrayList<Command> out = new ArrayList<Command>(commands.size());
+            for (Command c : commands) {
+                int n = out.size();
+                if (c.type == COMMAND_TYPE.CALL && c.arg1.equals(MULTIPLY) && c.arg2 == 2 && n >= 2
+                        && out.get(n - 1).type == COMMAND_TYPE.PUSH && out.get(n - 2).type == COMMAND_TYPE.PUSH) {
+                    // the constant may be either operand
+                    Command x = out.get(n - 2);
+                    int multiplier = constantOf(out.get(n - 1));
+                    if (multiplier < 0) {
+                        x = out.get(n - 1);
+                        multiplier = constantOf(out.get(n - 2));
+                    }
+                    if (multiplier >= 0 && multiplier <= MAX_MULTIPLIER && Integer.bitCount(multiplier) <= 1) {
+                        out.remove(n - 1);
+                        out.remove(n - 2);
+                        if (multiplier == 0) {
+                            out.add(new Command("push constant 0"));
+                            continue;
+                        }
+                        out.add(x);
+                        for (int k = 1; k < multiplier; k++) {
+                            out.add(x);
+                            out.add(new Command("add"));
+                        }
+                        continue;
+                    }
+                }
+                out.add(c);
+            }
+            return out;
+        }
+
+        /** Evaluates arithmetic and comparisons whose operands are constants
+         *  A constant is push constant n, optionally followed by neg or not
+         *  Args:       ArrayList<Command> commands - commands of one file
+         *  Returns:    ArrayList<Command> - rewritten commands */
+        private static ArrayList<Command> foldConstants(ArrayList<Command> commands) {
+            ArrayList<Command> out = new ArrayList<Command>(commands.size());
+            for (Command c : commands) {
+                int n = out.size();
+                int yLength = constantLength(out, n);
+                if (yLength > 0 && (c.type == COMMAND_TYPE.NEG || c.type == COMMAND_TYPE.NOT)) {
+                    short y = constantValue(out, n, yLength);
+                    removeTail(out, yLength);
+                    addConstant(out, c.type == COMMAND_TYPE.NEG ? (short) -y : (short) ~y);
+                    continue;
+                }
+                int xLength = yLength > 0 ? constantLength(out, n - yLength) : 0;
+                if (xLength > 0 && (c.type.isBinary() || c.type.isComparison())) {
+                    short y = constantValue(out, n, yLength);
+                    short x = constantValue(out, n - yLength, xLength);
+                    removeTail(out, xLength + yLength);
+                    addConstant(out, evaluate(c.type, x, y));
+                    continue;
+                }
+                out.add(c);
+            }
+            return out;
+        }
+
+        /** Computes a binary operation or comparison as translated code would, on 16-bit values
+         *  Args:       COMMAND_TYPE type - add, sub, and, or, eq, gt or lt
+         *              short x - first operand
+         *              short y - second operand, the top of the stack
+         *  Returns:    short - the result */
+        private static short evaluate(COMMAND_TYPE type, short x, short y) {
+            // buildCompare tests the sign of the 16-bit difference y - x
+            short diff = (short) (y - x);
+            switch (type) {
+                case ADD:   return (short) (x + y);
+                case SUB:   return (short) (x - y);
+                case AND:   return (short) (x & y);
+                case OR:    return (short) (x | y);
+                case EQ:    return (short) (diff == 0 ? -1 : 0);
+                case GT:    return (short) (diff < 0 ? -1 : 0);
+                default:    return (short) (diff > 0 ? -1 : 0);
+            }
+        }
+
+        /** Returns the number of commands in a constant ending just before a position
+         *  Args:       ArrayList<Command> out - commands
+         *              int end - position after the constant
+         *  Returns:    int - 1 for push constant, 2 for push constant then neg or not, 0 if not a constant */
+        private static int constantLength(ArrayList<Command> out, int end) {
+            if (end >= 1 && constantOf(out.get(end - 1)) >= 0) return 1;
+            if (end >= 2 && constantOf(out.get(end - 2)) >= 0
+                    && (out.get(end - 1).type == COMMAND_TYPE.NEG || out.get(end - 1).type == COMMAND_TYPE.NOT)) {
+                return 2;
+            }
+            return 0;
+        }
+
+        /** Returns the value of a constant found by constantLength */
+        private static short constantValue(ArrayList<Command> out, int end, int length) {
+            short value = (short) constantOf(out.get(end - length));
+            if (length == 1) return value;
+            return out.get(end - 1).type == COMMAND_TYPE.NEG ? (short) -value : (short) ~value;
+        }
+
+        /** Appends the shortest commands that push a 16-bit value */
+        private static void addConstant(ArrayList<Command> out, short value) {
+            if (value >= 0) {
+                out.add(new Command("push constant " + value));
+            } else if (value == -1) {
+                out.add(new Command("push constant 0"));
+                out.add(new Command("not"));
+            } else if (value == Short.MIN_VALUE) {
+                out.add(new Command("push constant " + MAX_CONSTANT));
+                out.add(new Command("not"));
+            } else {
+                out.add(new Command("push constant " + -value));
+                out.add(new Command("neg"));
+            }
+        }
+
+        /** Removes the last commands of a list */
+        private static void removeTail(ArrayList<Command> out, int count) {
+            for (int k = 0; k < count; k++) out.remove(out.size() - 1);
+        }
+
+        /** Returns the value pushed by a push constant command, or -1 for any other command */
+        private static int constantOf(Command c) {
+            if (c.type != COMMAND_TYPE.PUSH || c.getSegment() != SEGMENT.CONSTANT) return -1;
+            return c.arg2;
+        }
+
+        /** Points each goto and if-goto at the end of a chain of gotos, then removes gotos to the next command
+         *  Args:       ArrayList<Command> commands - commands of one file
+         *  Returns:    ArrayList<Command> - rewritten commands */
+        private static ArrayList<Command> threadJumps(ArrayList<Command> commands) {
+            // for each label, the label that its first command jumps to, if that command is a goto
+            HashMap<String, String> forward = new HashMap<String, String>();
+            String functionName = "";
+            for (int i = 0; i < commands.size(); i++) {
+                Command c = commands.get(i);
+                functionName = CodeWriter.updateFunctionName(c, functionName);
+                if (c.type != COMMAND_TYPE.LABEL) continue;
+                int next = i + 1;
+                while (next < commands.size() && commands.get(next).type == COMMAND_TYPE.LABEL) next++;
+                if (next < commands.size() && commands.get(next).type == COMMAND_TYPE.GOTO) {
+                    forward.put(functionName + "$" + c.arg1, commands.get(next).arg1);
+                }
+            }
+            ArrayList<Command> out = new ArrayList<Command>(commands.size());
+            functionName = "";
+            for (int i = 0; i < commands.size(); i++) {
+                Command c = commands.get(i);
+                functionName = CodeWriter.updateFunctionName(c, functionName);
+                if (c.type == COMMAND_TYPE.GOTO && labelFollows(commands, i + 1, c.arg1)) continue;
+                if (c.type == COMMAND_TYPE.GOTO || c.type == COMMAND_TYPE.IF) {
+                    // follow the chain, stopping if it loops back on itself
+                    String target = c.arg1;
+                    HashSet<String> seen = new HashSet<String>();
+                    while (forward.containsKey(functionName + "$" + target) && seen.add(target)) {
+                        target = forward.get(functionName + "$" + target);
+                    }
+                    if (!target.equals(c.arg1)) c = new Command(c.type.token + " " + target);
+                    // a goto onto one of the labels that directly follow it does nothing
+                    if (c.type == COMMAND_TYPE.GOTO && labelFollows(commands, i + 1, target)) continue;
+                }
+                out.add(c);
+            }
+            return out;
+        }
+
+        /** Determines if a label is among the labels starting at a position
+         *  Args:       ArrayList<Command> commands - commands of one file
+         *              int i - position to look from
+         *              String label - name of the label
+         *  Returns:    boolean - true if the label is reached from position i without executing a command */
+        private static boolean labelFollows(ArrayList<Command> commands, int i, String label) {
+            for (; i < commands.size() && commands.get(i).type == COMMAND_TYPE.LABEL; i++) {
+                if (commands.get(i).arg1.equals(label)) return true;
+            }
+            return false;
+        }
+
+        /** Removes commands after a goto or return that no jump can reach
+         *  Code becomes reachable again at the next function or at a label used by a goto or if-goto
+         *  Args:       ArrayList<Command> commands - commands of one file
+         *  Returns:    ArrayList<Command> - rewritten commands */
+        private static ArrayList<Command> removeDeadCode(ArrayList<Command> commands) {
+            HashSet<String> targets = new HashSet<String>();
+            String functionName = "";
+            for (Command c : commands) {
+                functionName = CodeWriter.updateFunctionName(c, functionName);
+                if (c.type == COMMAND_TYPE.GOTO || c.type == COMMAND_TYPE.IF) targets.add(functionName + "$" + c.arg1);
+            }
+            ArrayList<Command> out = new ArrayList<Command>(commands.size());
+            functionName = "";
+            boolean dead = false;
+            for (Command c : commands) {
+                functionName = CodeWriter.updateFunctionName(c, functionName);
+                if (c.type == COMMAND_TYPE.FUNCTION) dead = false;
+                if (c.type == COMMAND_TYPE.LABEL && targets.contains(functionName + "$" + c.arg1)) dead = false;
+                if (dead) continue;
+                out.add(c);
+                if (c.type == COMMAND_TYPE.GOTO || c.type == COMMAND_TYPE.RETURN) dead = true;
+            }
+            return out;
+        }
+    }
+
     /** Writes translated asm code to output file */
     private static class CodeWriter {
 
@@ -242,39 +715,125 @@ public class VM2 {
          *              Parser parsed - the result of constructing Parser by parsing input .vm file
          *  Returns:    void */
         private CodeWriter(File asmFile, Parser[] parsedInputFiles) {
+            this(asmFile, parsedInputFiles, new String[parsedInputFiles.length]);
+        }
+
+        /** Constructor: for -stream, parses each input file only when its turn comes, so that one file at a time
+         *  is open or mapped
+         *  Args:       File asmFile - output .asm file
+         *              File[] vmFiles - input .vm files
+         *  Returns:    void */
+        private CodeWriter(File asmFile, File[] vmFiles) {
+            this(asmFile, vmFiles, new Parser[vmFiles.length], new String[vmFiles.length]);
+        }
+
+        /** Constructor: as above, but files with an already translated fragment are not translated again
+         *  Args:       File asmFile - output .asm file, or .hack/.rom file with -hack/-rom
+         *              Parser[] parsedInputFiles - parsed input files, null where a fragment is given
+         *              String[] fragments - translation of each file read from TranslationCache, or null
+         *  Returns:    void */
+        private CodeWriter(File asmFile, Parser[] parsedInputFiles, String[] fragments) {
+            this(asmFile, null, parsedInputFiles, fragments);
+        }
+
+        /** Constructor: does the work of the constructors above
+         *  Args:       File asmFile - output .asm file, or .hack/.rom file with -hack/-rom
+         *              File[] vmFiles - with -stream, the input files, parsed here one at a time; otherwise null
+         *              Parser[] parsedInputFiles - parsed input files, null where a fragment is given or with -stream
+         *              String[] fragments - translation of each file read from TranslationCache, or null
+         *  Returns:    void */
+        private CodeWriter(File asmFile, File[] vmFiles, Parser[] parsedInputFiles, String[] fragments) {
             try (
-                    PrintWriter pw = new PrintWriter(asmFile);
+                    PrintWriter pw = (binaryExt != null) ? new PrintWriter(new HackWriter(asmFile))
+                            : streamMode ? new PrintWriter(new BufferedWriter(Channels.newWriter(FileChannel.open(asmFile.toPath(),
+                                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                                    "US-ASCII"), STREAM_BUFFER))
+                            : new PrintWriter(asmFile);
             ) {
+                // with -peephole, collect the whole program before optimizing and writing it
+                StringWriter buffer = new StringWriter();
+                PrintWriter out = peephole ? new PrintWriter(buffer) : pw;
+                // with -cachetop, tracks whether the stack top is held in D
+                StackCache cache = new StackCache();
                 // identifier number used for distinguishing labels
                 int identifier = 0;
                 // write bootstrap code to the output file
-                writeInit(pw, identifier++);
-                // for each parsed file, append its translatation to asm code
-                for (int i = 0; i < parsedInputFiles.length; i++) {
-                    Parser p = parsedInputFiles[i];
-                    String fileName = p.vmFile.getName();
-                    fileName = fileName.substring(0, fileName.lastIndexOf("."));
-                    String functionName = "";
-                    while (p.hasMoreCommands()) {
-                        p.advance();
-                        if (DBG) System.out.println(p.currentCommand.line);
-                        String translated = vmToASM(p.currentCommand, identifier, fileName, functionName);
-                        if (translated == null || translated.isEmpty()) {
-                            System.err.println("Error: failed to translate line: " + p.currentCommand.line);
-                        } else {
-                            // update name of function which we are currently within
-                            functionName = updateFunctionName(p.currentCommand, functionName);
-                            // write translated line to output file
-                            pw.print(translated);
-                            identifier++;
-                        }
+                writeInit(out, identifier++);
+                if (parallel || cacheMode) {
+                    // translate every file as its own task, then append the results in input order
+                    TranslateTask[] tasks = new TranslateTask[parsedInputFiles.length];
+                    for (int i = 0; i < tasks.length; i++) {
+                        if (fragments[i] != null) continue;
+                        tasks[i] = new TranslateTask(parsedInputFiles[i]);
+                        if (parallel) ForkJoinPool.commonPool().execute(tasks[i]);
+                    }
+                    for (int i = 0; i < tasks.length; i++) {
+                        if (fragments[i] == null) fragments[i] = parallel ? tasks[i].join() : tasks[i].invoke();
+                        out.print(fragments[i]);
                     }
+                } else {
+                    // for each parsed file, append its translatation to asm code
+                    for (int i = 0; i < parsedInputFiles.length; i++) {
+                        Parser p = (vmFiles != null) ? new Parser(vmFiles[i]) : parsedInputFiles[i];
+                        identifier = writeFile(out, p, cache, identifier, "");
+                    }
+                }
+                if (peephole) {
+                    out.flush();
+                    Peephole.write(pw, buffer.toString());
                 }
                 pw.flush();
             } catch (FileNotFoundException fnfe) {
                 System.err.println("Error: FileNotFoundException when writing to file " + asmFile.getName());
                 System.exit(1);
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when opening file " + asmFile.getName());
+                System.exit(1);
+            }
+        }
+
+        /** Translates the commands of one parsed file and writes them
+         *  Args:       PrintWriter out - where the asm code is written
+         *              Parser p - parsed input file
+         *              StackCache cache - state of the stack top, used with -cachetop
+         *              int identifier - first number used for distinguishing labels
+         *              String namespace - prefix of the label numbers, or "" to number labels across all files
+         *  Returns:    int - next unused label number */
+        private static int writeFile(PrintWriter out, Parser p, StackCache cache, int identifier, String namespace) {
+            String fileName = p.vmFile.getName();
+            fileName = fileName.substring(0, fileName.lastIndexOf("."));
+            String functionName = "";
+            // each command is translated into the same builder and copied out through the same array
+            StringBuilder sb = new StringBuilder();
+            char[] chars = new char[256];
+            while (p.hasMoreCommands()) {
+                p.advance();
+                if (DBG) System.out.println(p.currentCommand);
+                sb.setLength(0);
+                if (cacheTop) {
+                    cache.translate(sb, p.currentCommand, namespace + identifier, fileName, functionName);
+                } else {
+                    buildCommand(sb, p.currentCommand, namespace + identifier, fileName, functionName);
+                }
+                if (sb.length() == 0) {
+                    System.err.println("Error: failed to translate line: " + p.currentCommand);
+                } else {
+                    // update name of function which we are currently within
+                    functionName = updateFunctionName(p.currentCommand, functionName);
+                    // write translated line to output file
+                    if (chars.length < sb.length()) chars = new char[2 * sb.length()];
+                    sb.getChars(0, sb.length(), chars, 0);
+                    out.write(chars, 0, sb.length());
+                    identifier++;
+                }
+            }
+            // a file may end with its stack top still cached in D
+            if (cacheTop) {
+                sb.setLength(0);
+                cache.spill(sb);
+                out.append(sb);
             }
+            return identifier;
         }
 
         /** Returns string naming the function currently being defined
@@ -304,6 +863,21 @@ public class VM2 {
             callInit.arg2 = 0;
             callInit.type = COMMAND_TYPE.CALL;
             pw.print(vmToASM(callInit, identifier, null, null));
+            if (sharedCalls) {
+                // Sys.init never returns, so the shared routines can follow its call
+                StringBuilder sb = new StringBuilder();
+                buildCallRoutine(sb);
+                sb.append("(" + RETURN_ROUTINE + ")\n");
+                buildReturn(sb, null);
+                pw.print(sb);
+            }
+            if (sharedCompares) {
+                StringBuilder sb = new StringBuilder();
+                buildCompareRoutine(COMMAND_TYPE.EQ, sb);
+                buildCompareRoutine(COMMAND_TYPE.GT, sb);
+                buildCompareRoutine(COMMAND_TYPE.LT, sb);
+                pw.print(sb);
+            }
         }
 
         /** Translate a vm Command to an asm String
@@ -313,7 +887,31 @@ public class VM2 {
          *              String functionName - name of function which this command is part of
          *  Returns:    String containing asm code corresponding to vm command */
         private static String vmToASM(Command command, int identifier, String fileName, String functionName) {
+            return vmToASM(command, String.valueOf(identifier), fileName, functionName);
+        }
+
+        /** Translate a vm Command to an asm String
+         *  Args:       Command command - individual parsed vm command
+         *              String identifier - label number, possibly prefixed by a file's namespace
+         *              String fileName - name of file, used for static variable access
+         *              String functionName - name of function which this command is part of
+         *  Returns:    String containing asm code corresponding to vm command */
+        private static String vmToASM(Command command, String identifier, String fileName, String functionName) {
             StringBuilder sb = new StringBuilder();
+            buildCommand(sb, command, identifier, fileName, functionName);
+            // output string from stringbuilder
+            return sb.toString();
+        }
+
+        /** Appends the asm code for a vm Command, appending nothing for commands that cannot be translated
+         *  Args:       StringBuilder sb - stringbuilder where this function's output is stored
+         *              Command command - individual parsed vm command
+         *              String identifier - label number, possibly prefixed by a file's namespace
+         *              String fileName - name of file, used for static variable access
+         *              String functionName - name of function which this command is part of
+         *  Returns:    void */
+        private static void buildCommand(StringBuilder sb, Command command, String identifier, String fileName,
+                                         String functionName) {
             switch(command.type) {
                 case ADD:
                 case AND:
@@ -328,7 +926,11 @@ public class VM2 {
                 case EQ:
                 case GT:
                 case LT:
-                    buildCompare(command.type, sb, identifier);
+                    if (sharedCompares) {
+                        buildSharedCompare(command.type, sb, identifier);
+                    } else {
+                        buildCompare(command.type, sb, identifier);
+                    }
                     break;
                 case POP:
                     buildPop(sb, command, fileName);
@@ -349,16 +951,23 @@ public class VM2 {
                     buildFunction(sb, command);
                     break;
                 case RETURN:
-                    buildReturn(sb, command);
+                    if (sharedCalls) {
+                        sb.append("@" + RETURN_ROUTINE + "\n");
+                        sb.append("0;JMP\n");
+                    } else {
+                        buildReturn(sb, command);
+                    }
                     break;
                 case CALL:
-                    buildCall(sb, command, identifier);
+                    if (sharedCalls) {
+                        buildSharedCall(sb, command, identifier);
+                    } else {
+                        buildCall(sb, command, identifier);
+                    }
                     break;
                 default:
                     break;
             }
-            // output string from stringbuilder
-            return sb.toString();
         }
 
         /** Builds string containing asm translation of vm "label" command
@@ -482,9 +1091,9 @@ public class VM2 {
         /** Builds string containing asm translation of vm "call" command
          *  Args:       Command command - individual parsed vm command
          *              StringBuilder sb - stringbuilder where this function's output is stored
-         *              int identifier - number for distinguishing labels
+         *              String identifier - label number, possibly prefixed by a file's namespace
          *  Returns:    void */
-        private static void buildCall(StringBuilder sb, Command command, int identifier) {
+        private static void buildCall(StringBuilder sb, Command command, String identifier) {
             // push return-address
             sb.append("@RETURN." + identifier + "\n");
             sb.append("D=A\n");
@@ -541,6 +1150,69 @@ public class VM2 {
             sb.append("(RETURN." + identifier + ")\n");
         }
 
+        /** Builds string containing asm for a "call" command that jumps to the shared call routine
+         *  R14 = nArgs, R13 = callee address, D = return address
+         *  Args:       Command command - individual parsed vm command
+         *              StringBuilder sb - stringbuilder where this function's output is stored
+         *              String identifier - label number, possibly prefixed by a file's namespace
+         *  Returns:    void */
+        private static void buildSharedCall(StringBuilder sb, Command command, String identifier) {
+            sb.append("@" + command.arg2 + "\n");
+            sb.append("D=A\n");
+            sb.append("@R14\n");
+            sb.append("M=D\n");
+            sb.append("@" + command.arg1 + "\n");
+            sb.append("D=A\n");
+            sb.append("@R13\n");
+            sb.append("M=D\n");
+            sb.append("@RETURN." + identifier + "\n");
+            sb.append("D=A\n");
+            sb.append("@" + CALL_ROUTINE + "\n");
+            sb.append("0;JMP\n");
+            sb.append("(RETURN." + identifier + ")\n");
+        }
+
+        /** Builds string containing the shared call routine used by buildSharedCall
+         *  Same frame as buildCall, with the return address in D, nArgs in R14 and the callee in R13
+         *  Args:       StringBuilder sb - stringbuilder where this function's output is stored
+         *  Returns:    void */
+        private static void buildCallRoutine(StringBuilder sb) {
+            sb.append("(" + CALL_ROUTINE + ")\n");
+            // push return-address
+            sb.append("@SP\n");
+            sb.append("AM=M+1\n");
+            sb.append("A=A-1\n");
+            sb.append("M=D\n");
+            // push LCL, ARG, THIS, THAT
+            String[] saved = {"LCL", "ARG", "THIS", "THAT"};
+            for (String reg : saved) {
+                sb.append("@" + reg + "\n");
+                sb.append("D=M\n");
+                sb.append("@SP\n");
+                sb.append("AM=M+1\n");
+                sb.append("A=A-1\n");
+                sb.append("M=D\n");
+            }
+            // ARG = SP-n-5
+            sb.append("@R14\n");
+            sb.append("D=M\n");
+            sb.append("@5\n");
+            sb.append("D=D+A\n");
+            sb.append("@SP\n");
+            sb.append("D=M-D\n");
+            sb.append("@ARG\n");
+            sb.append("M=D\n");
+            // LCL = SP
+            sb.append("@SP\n");
+            sb.append("D=M\n");
+            sb.append("@LCL\n");
+            sb.append("M=D\n");
+            // goto f
+            sb.append("@R13\n");
+            sb.append("A=M\n");
+            sb.append("0;JMP\n");
+        }
+
         /** Builds string containing asm translation of vm "push" command
          *  Args:       Command command - individual parsed vm command
          *              StringBuilder sb - stringbuilder where this function's output is stored
@@ -673,9 +1345,9 @@ public class VM2 {
         /** Builds string containing asm translation of lt, gt, or eq command
          *  Args:       COMMAND_TYPE type - identifies of command is lt, gt, eq or other
          *              StringBuilder sb - where the output asm code of this function is stored
-         *              int identifier - number used for distinguishing labels
+         *              String identifier - label number, possibly prefixed by a file's namespace
          *  Returns:    void */
-        private static void buildCompare(COMMAND_TYPE type, StringBuilder sb, int identifier) {
+        private static void buildCompare(COMMAND_TYPE type, StringBuilder sb, String identifier) {
             // only operates on comparison commands
             if (!type.isComparison()) return;
             String trueLabel = "TRUE." + identifier;
@@ -710,6 +1382,1016 @@ public class VM2 {
             // write D into top of stack
             sb.append("M=D\n");
         }
+
+        /** Builds string containing asm for an lt, gt, or eq command that jumps to its shared routine
+         *  D = return address
+         *  Args:       COMMAND_TYPE type - identifies of command is lt, gt, eq or other
+         *              StringBuilder sb - where the output asm code of this function is stored
+         *              String identifier - label number, possibly prefixed by a file's namespace
+         *  Returns:    void */
+        private static void buildSharedCompare(COMMAND_TYPE type, StringBuilder sb, String identifier) {
+            // only operates on comparison commands
+            if (!type.isComparison()) return;
+            sb.append("@RETURN." + identifier + "\n");
+            sb.append("D=A\n");
+            sb.append("@" + COMPARE_ROUTINE + type.token.toUpperCase() + "\n");
+            sb.append("0;JMP\n");
+            sb.append("(RETURN." + identifier + ")\n");
+        }
+
+        /** Builds string containing the shared routine for lt, gt, or eq used by buildSharedCompare
+         *  Same result as buildCompare, with the return address in D, saved in R15
+         *  Args:       COMMAND_TYPE type - identifies of command is lt, gt, eq or other
+         *              StringBuilder sb - where the output asm code of this function is stored
+         *  Returns:    void */
+        private static void buildCompareRoutine(COMMAND_TYPE type, StringBuilder sb) {
+            String routine = COMPARE_ROUTINE + type.token.toUpperCase();
+            sb.append("(" + routine + ")\n");
+            sb.append("@R15\n");
+            sb.append("M=D\n");
+            sb.append("@SP\n");
+            sb.append("AM=M-1\n");
+            sb.append("D=M\n");
+            sb.append("A=A-1\n");
+            sb.append("D=D-M\n");
+            // assume true, then overwrite with 0 if the jump is not taken
+            sb.append("M=-1\n");
+            sb.append("@" + routine + ".END\n");
+            if (type == COMMAND_TYPE.GT) {
+                // gt is true if difference is negative
+                sb.append("D;JLT\n");
+            } else if (type == COMMAND_TYPE.LT) {
+                // lt is true if difference is positive
+                sb.append("D;JGT\n");
+            } else {
+                // eq is true if difference is zero
+                sb.append("D;JEQ\n");
+            }
+            sb.append("@SP\n");
+            sb.append("A=M-1\n");
+            sb.append("M=0\n");
+            sb.append("(" + routine + ".END)\n");
+            sb.append("@R15\n");
+            sb.append("A=M\n");
+            sb.append("0;JMP\n");
+        }
+    }
+
+    /** Assembles the asm code written by CodeWriter straight into Hack machine words, so that no .asm file
+     *  is written and read back. Characters are collected into one reused line, without white space or comments,
+     *  and each line is encoded from it by the Assembler's Encoder and SymbolTable, so no String is made per line.
+     *  References to labels that are not yet defined, and to variables, are patched when the writer is closed */
+    private static class HackWriter extends Writer {
+
+        private static final int PENDING = -2;                  // symbol values at or below this are -(id + 2) of
+                                                                // a symbol that is used but not yet defined
+
+        private final File outFile;                              // .hack or .rom file written on close
+        private final Line line = new Line();                    // current line, without white space or comment
+        private boolean comment = false;                         // true from "//" to the end of the line
+        private final Assembler.SymbolTable symbols = new Assembler.SymbolTable(1024); // symbols and their addresses
+        private int[] pendingAddresses = new int[256];           // address of each pending symbol, or -1 if unknown
+        private int numPending = 0;                              // number of pending symbols
+        private int[] words = new int[1024];                     // machine words, with 0 where a fixup goes
+        private int numWords = 0;                                // number of instructions so far
+        private int[] fixups = new int[256];                     // indices of words that name pending symbols
+        private int[] fixupIds = new int[256];                   // the pending symbol named by each fixup
+        private int numFixups = 0;                               // number of fixups
+        private boolean closed = false;                          // true once the output file is written
+
+        /** Constructor: Create HackWriter that will write outFile when closed
+         *  Args:       File outFile - .hack or .rom file
+         *  Returns:    HackWriter - a new instance of HackWriter */
+        private HackWriter(File outFile) {
+            this.outFile = outFile;
+        }
+
+        /** Collects the written characters into lines, dropping white space and comments as the Assembler does,
+         *  and assembles each complete line
+         *  Args:       char[] cbuf, int off, int len - the characters written */
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    this.assemble();
+                } else if (this.comment || Character.isWhitespace(c)) {
+                    continue;
+                } else if (c == '/' && this.line.length > 0 && this.line.chars[this.line.length - 1] == '/') {
+                    this.line.length--;
+                    this.comment = true;
+                } else {
+                    this.line.append(c);
+                }
+            }
+        }
+
+        /** Assembles the current line and starts the next one
+         *  Returns:    void */
+        private void assemble() {
+            int n = this.line.length;
+            this.comment = false;
+            if (n == 0) return;
+            if (this.line.charAt(0) == '(') {
+                this.define(n);
+            } else {
+                if (this.numWords == this.words.length) this.words = Arrays.copyOf(this.words, 2 * this.numWords);
+                if (this.line.charAt(0) != '@') {
+                    this.words[this.numWords++] = Assembler.Encoder.encodeC(this.line);
+                } else if (Character.isDigit(this.line.charAt(1))) {
+                    this.words[this.numWords++] = Assembler.Encoder.encodeA(this.line);
+                } else {
+                    // reference records this.numWords as the fixup index, so it must run before the increment
+                    int address = this.reference(n);
+                    this.words[this.numWords++] = address & Assembler.A_VALUE_MASK;
+                }
+            }
+            this.line.length = 0;
+        }
+
+        /** Gives the label (X) on the current line the address of the next instruction
+         *  The first definition of a label wins, as in the Assembler
+         *  Args:       int n - length of the line
+         *  Returns:    void */
+        private void define(int n) {
+            int value = this.symbols.get(this.line, 1, n - 1);
+            if (value == Assembler.SymbolTable.NOT_FOUND || value <= PENDING) {
+                if (value <= PENDING) this.pendingAddresses[PENDING - value] = this.numWords;
+                this.symbols.put(new String(this.line.chars, 1, n - 2), this.numWords);
+            }
+        }
+
+        /** Returns the address named by the symbol in @symbol on the current line
+         *  A symbol that is not yet defined is recorded as pending, and its fixup is patched on close
+         *  Args:       int n - length of the line
+         *  Returns:    int - the address, or 0 if it is not yet known */
+        private int reference(int n) {
+            int value = this.symbols.get(this.line, 1, n);
+            if (value == Assembler.SymbolTable.NOT_FOUND) {
+                // first use of a forward label reference or a variable
+                if (this.numPending == this.pendingAddresses.length) {
+                    this.pendingAddresses = Arrays.copyOf(this.pendingAddresses, 2 * this.numPending);
+                }
+                this.pendingAddresses[this.numPending] = -1;
+                value = PENDING - this.numPending++;
+                this.symbols.put(new String(this.line.chars, 1, n - 1), value);
+            }
+            if (value > PENDING) return value;
+            if (this.numFixups == this.fixups.length) {
+                this.fixups = Arrays.copyOf(this.fixups, 2 * this.numFixups);
+                this.fixupIds = Arrays.copyOf(this.fixupIds, 2 * this.numFixups);
+            }
+            this.fixups[this.numFixups] = this.numWords;
+            this.fixupIds[this.numFixups++] = PENDING - value;
+            return 0;
+        }
+
+        /** Characters of the line being assembled, read by the Encoder and SymbolTable in place */
+        private static class Line implements CharSequence {
+
+            char[] chars = new char[64];    // characters, of which the first length are used
+            int length = 0;                 // number of characters in the line
+
+            void append(char c) {
+                if (this.length == this.chars.length) this.chars = Arrays.copyOf(this.chars, 2 * this.length);
+                this.chars[this.length++] = c;
+            }
+
+            public int length() {
+                return this.length;
+            }
+
+            public char charAt(int index) {
+                return this.chars[index];
+            }
+
+            public CharSequence subSequence(int start, int end) {
+                return new String(this.chars, start, end - start);
+            }
+
+            public String toString() {
+                return new String(this.chars, 0, this.length);
+            }
+        }
+
+        /** Nothing is written until close, when every symbol is known */
+        public void flush() {}
+
+        /** Patches the fixups and writes the machine words to outFile
+         *  Symbols that are still not labels become variables from RAM[16], in order of first use as in the Assembler
+         *  Returns:    void */
+        public void close() {
+            if (this.closed) return;
+            this.closed = true;
+            if (this.line.length > 0) this.assemble();
+            int nextVariable = Assembler.FIRST_FREE_REG;
+            for (int i = 0; i < this.numFixups; i++) {
+                int id = this.fixupIds[i];
+                if (this.pendingAddresses[id] < 0) this.pendingAddresses[id] = nextVariable++;
+                this.words[this.fixups[i]] = this.pendingAddresses[id] & Assembler.A_VALUE_MASK;
+            }
+            if (this.outFile.getName().endsWith(ROM_EXT)) {
+                MappedByteBuffer rom = Assembler.RomImage.create(this.outFile, this.numWords);
+                for (int i = 0; i < this.numWords; i++) rom.putShort((short) this.words[i]);
+                rom.force();
+                return;
+            }
+            try (
+                    Writer out = new FileWriter(this.outFile);
+            ) {
+                Assembler.Encoder.writeBinary(out, this.words, this.numWords);
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when writing to file " + this.outFile.getName());
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Parses one input file on the common ForkJoinPool, for -parallel */
+    private static class ParseTask extends RecursiveTask<Parser> {
+
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private final File vmFile;  // input .vm file
+
+        private ParseTask(File vmFile) {
+            this.vmFile = vmFile;
+        }
+
+        protected Parser compute() {
+            return new Parser(this.vmFile);
+        }
+    }
+
+    /** Translates one parsed file on the common ForkJoinPool, for -parallel
+     *  Label numbers start at 0 in every file and are prefixed with the file name, so the output of a file
+     *  does not depend on the other files or on the order in which the tasks finish */
+    private static class TranslateTask extends RecursiveTask<String> {
+
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        private final Parser parsed;    // parsed input file
+
+        private TranslateTask(Parser parsed) {
+            this.parsed = parsed;
+        }
+
+        protected String compute() {
+            String fileName = this.parsed.vmFile.getName();
+            fileName = fileName.substring(0, fileName.lastIndexOf("."));
+            StringWriter buffer = new StringWriter();
+            PrintWriter out = new PrintWriter(buffer);
+            CodeWriter.writeFile(out, this.parsed, new StackCache(), 0, fileName + ".");
+            out.flush();
+            return buffer.toString();
+        }
+    }
+
+    /** On-disk cache of translated files for -cache
+     *  Each file is translated with its own label namespace, as with -parallel, so its translation depends only
+     *  on its name, its contents and the options, which together make up the key of the cached fragment */
+    private static class TranslationCache {
+
+        private static final String CACHE_DIR = ".vmcache";     // cache directory, next to the output file
+        private static final String FRAGMENT_EXT = ".asm";      // extension of cached fragments
+        private static final String HASH = "SHA-256";           // digest used for keys
+        private static final int FORMAT = 1;                    // changes whenever the generated code changes
+        private static final int KEY_LENGTH = 64;               // hex digits in a key
+        private static final int MAX_ENTRIES = 4;               // fragments kept per input file name, newest first
+
+        /** Returns the cache directory for an output file */
+        private static File directory(File asmFile) {
+            return new File(asmFile.getParentFile(), CACHE_DIR);
+        }
+
+        /** Computes the key of an input file from its name, its contents and the options that change its output
+         *  Args:       File vmFile - input .vm file
+         *  Returns:    String - hex digest */
+        private static String key(File vmFile) {
+            String options = FORMAT + " " + cacheTop + " " + sharedCalls + " " + sharedCompares + " "
+                    + Arrays.toString(optPasses) + " " + vmFile.getName() + "\n";
+            try {
+                MessageDigest digest = MessageDigest.getInstance(HASH);
+                digest.update(options.getBytes("UTF-8"));
+                digest.update(Files.readAllBytes(vmFile.toPath()));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) hex.append(String.format("%02x", b & 0xFF));
+                return hex.toString();
+            } catch (NoSuchAlgorithmException nsae) {
+                System.err.println("Error: no " + HASH + " digest available for -cache.");
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when reading from input file " + vmFile.getPath());
+            }
+            System.exit(1);
+            return null;
+        }
+
+        /** Returns the fragment file for an input file name and key, e.g. Main.vm.3f2a...9c.asm */
+        private static File fragment(File cacheDir, String name, String key) {
+            return new File(cacheDir, name + "." + key + FRAGMENT_EXT);
+        }
+
+        /** Returns the cached translation of an input file, or null if there is none
+         *  A fragment that is used is marked as the newest of its file, so that prune keeps it */
+        private static String read(File cacheDir, File vmFile, String key) {
+            File fragment = fragment(cacheDir, vmFile.getName(), key);
+            if (!fragment.isFile()) return null;
+            try {
+                String text = new String(Files.readAllBytes(fragment.toPath()), "UTF-8");
+                fragment.setLastModified(System.currentTimeMillis());
+                return text;
+            } catch (IOException ioe) {
+                // an unreadable fragment is translated again
+                return null;
+            }
+        }
+
+        /** Stores the fragments of the files that were translated, then prunes the older fragments of those files
+         *  Args:       File cacheDir - cache directory
+         *              String[] args - names of the input files
+         *              String[] keys - key of each input file
+         *              String[] fragments - translation of each input file
+         *              Parser[] parsedInputFiles - parsed input files, null for files that were already cached
+         *  Returns:    void */
+        private static void update(File cacheDir, String[] args, String[] keys, String[] fragments, Parser[] parsedInputFiles) {
+            int translated = 0;
+            try {
+                Files.createDirectories(cacheDir.toPath());
+                for (int i = 0; i < keys.length; i++) {
+                    if (parsedInputFiles[i] == null) continue;
+                    translated++;
+                    String name = new File(args[i]).getName();
+                    // write to a temporary file first, so an interrupted run never leaves half a fragment
+                    Path tmp = Files.createTempFile(cacheDir.toPath(), name, ".tmp");
+                    Files.write(tmp, fragments[i].getBytes("UTF-8"));
+                    Files.move(tmp, fragment(cacheDir, name, keys[i]).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    prune(cacheDir, name);
+                }
+            } catch (IOException ioe) {
+                System.err.println("Error: IOException when writing to cache directory " + cacheDir.getPath());
+            }
+            System.out.println("Cache: translated " + translated + " of " + keys.length + " files.");
+        }
+
+        /** Deletes all but the MAX_ENTRIES most recently used fragments of one input file name
+         *  Fragments of other files are never touched, and a few are kept per file so that switching
+         *  options back and forth, e.g. with and without -opt, does not translate the file again
+         *  Args:       File cacheDir - cache directory
+         *              String name - name of the input file
+         *  Returns:    void */
+        private static void prune(File cacheDir, String name) {
+            File[] entries = cacheDir.listFiles();
+            if (entries == null) return;
+            ArrayList<File> own = new ArrayList<File>();
+            for (File entry : entries) {
+                String entryName = entry.getName();
+                // the rest of the name is a hex key, so it never contains another file's name
+                if (entryName.startsWith(name + ".") && entryName.endsWith(FRAGMENT_EXT)
+                        && entryName.length() == name.length() + 1 + KEY_LENGTH + FRAGMENT_EXT.length()) {
+                    own.add(entry);
+                }
+            }
+            if (own.size() <= MAX_ENTRIES) return;
+            Collections.sort(own, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    return Long.compare(b.lastModified(), a.lastModified());
+                }
+            });
+            for (int i = MAX_ENTRIES; i < own.size(); i++) own.get(i).delete();
+        }
+    }
+
+    /** Translates vm commands while keeping the top of the stack in D instead of in RAM[SP-1] where possible
+     *  When the top is cached, the stack in memory holds every element but the top, and SP points past them.
+     *  The top is written back (spilled) before labels, jumps, calls, returns and functions, so that every
+     *  label is reached with the whole stack in memory, as the code from CodeWriter.vmToASM expects. */
+    private static class StackCache {
+
+        private static final int MAX_INCREMENTS = 6; // largest index reached with A=A+1 instead of going through R13
+
+        boolean topInD = false;     // true if the top of the stack is in D and not in memory
+
+        /** Appends the asm code for a vm Command, starting and ending in the state given by topInD, and appending
+         *  nothing for commands that cannot be translated
+         *  Args:       StringBuilder sb - where the output asm code of this function is stored
+         *              Command command - individual parsed vm command
+         *              String identifier - label number, possibly prefixed by a file's namespace
+         *              String fileName - name of file, used for static variable access
+         *              String functionName - name of function which this command is part of
+         *  Returns:    void */
+        private void translate(StringBuilder sb, Command command, String identifier, String fileName,
+                               String functionName) {
+            // a bad line must produce no code, not even a spill, so that writeFile reports it
+            if (command.type == COMMAND_TYPE.OTHER) return;
+            switch (command.type) {
+                case PUSH:
+                    if (command.getSegment() == null) break;
+                    this.spill(sb);
+                    this.load(sb, command, fileName);
+                    this.topInD = true;
+                    break;
+                case POP:
+                    if (command.getSegment() == null || command.segment == SEGMENT.CONSTANT) break;
+                    this.fill(sb);
+                    this.store(sb, command, fileName);
+                    this.topInD = false;
+                    break;
+                case ADD:
+                case SUB:
+                case AND:
+                case OR:
+                    // y in D, x popped from memory
+                    this.fill(sb);
+                    sb.append("@SP\n");
+                    sb.append("AM=M-1\n");
+                    if (command.type == COMMAND_TYPE.ADD) {
+                        sb.append("D=D+M\n");
+                    } else if (command.type == COMMAND_TYPE.SUB) {
+                        sb.append("D=M-D\n");
+                    } else if (command.type == COMMAND_TYPE.AND) {
+                        sb.append("D=D&M\n");
+                    } else {
+                        sb.append("D=D|M\n");
+                    }
+                    this.topInD = true;
+                    break;
+                case NEG:
+                case NOT:
+                    if (this.topInD) {
+                        sb.append(command.type == COMMAND_TYPE.NEG ? "D=-D\n" : "D=!D\n");
+                    } else {
+                        CodeWriter.buildUnaryArithmetic(command.type, sb);
+                    }
+                    break;
+                case EQ:
+                case GT:
+                case LT:
+                    if (sharedCompares) {
+                        // the shared routines expect both operands in memory
+                        this.spill(sb);
+                        CodeWriter.buildSharedCompare(command.type, sb, identifier);
+                        break;
+                    }
+                    this.fill(sb);
+                    // D = y - x, tested as in buildCompare
+                    sb.append("@SP\n");
+                    sb.append("AM=M-1\n");
+                    sb.append("D=D-M\n");
+                    sb.append("@TRUE." + identifier + "\n");
+                    if (command.type == COMMAND_TYPE.GT) {
+                        sb.append("D;JLT\n");
+                    } else if (command.type == COMMAND_TYPE.LT) {
+                        sb.append("D;JGT\n");
+                    } else {
+                        sb.append("D;JEQ\n");
+                    }
+                    sb.append("D=0\n");
+                    sb.append("@END." + identifier + "\n");
+                    sb.append("0;JMP\n");
+                    sb.append("(TRUE." + identifier + ")\n");
+                    sb.append("D=-1\n");
+                    sb.append("(END." + identifier + ")\n");
+                    this.topInD = true;
+                    break;
+                case IF:
+                    if (this.topInD) {
+                        // the condition is already in D
+                        sb.append("@" + functionName + "$" + command.arg1 + "\n");
+                        sb.append("D;JNE\n");
+                        this.topInD = false;
+                    } else {
+                        CodeWriter.buildIf(sb, command, functionName);
+                    }
+                    break;
+                default:
+                    // labels, gotos, functions, calls and returns work on the stack in memory
+                    this.spill(sb);
+                    CodeWriter.buildCommand(sb, command, identifier, fileName, functionName);
+                    break;
+            }
+        }
+
+        /** Writes a cached top of the stack back to memory, as the end of buildPush does */
+        private void spill(StringBuilder sb) {
+            if (!this.topInD) return;
+            sb.append("@SP\n");
+            sb.append("M=M+1\n");
+            sb.append("A=M-1\n");
+            sb.append("M=D\n");
+            this.topInD = false;
+        }
+
+        /** Pops the top of the stack into D, unless it is already there */
+        private void fill(StringBuilder sb) {
+            if (this.topInD) return;
+            sb.append("@SP\n");
+            sb.append("AM=M-1\n");
+            sb.append("D=M\n");
+            this.topInD = true;
+        }
+
+        /** Loads the value named by a push command into D
+         *  Args:       StringBuilder sb - where the output asm code of this function is stored
+         *              Command command - push command with a valid segment
+         *              String fileName - name of file, used for static variable access
+         *  Returns:    void */
+        private void load(StringBuilder sb, Command command, String fileName) {
+            SEGMENT s = command.segment;
+            switch (s.type) {
+                case ADDRESSPOINTER:
+                    if (command.arg2 <= 1) {
+                        sb.append("@" + s.value + "\n");
+                        sb.append(command.arg2 == 0 ? "A=M\n" : "A=M+1\n");
+                    } else {
+                        sb.append("@" + command.arg2 + "\n");
+                        sb.append("D=A\n");
+                        sb.append("@" + s.value + "\n");
+                        sb.append("A=D+M\n");
+                    }
+                    sb.append("D=M\n");
+                    break;
+                case ADDRESS:
+                    sb.append("@" + (Integer.parseInt(s.value) + command.arg2) + "\n");
+                    sb.append("D=M\n");
+                    break;
+                case VIRTUAL:
+                    sb.append("@" + command.arg2 + "\n");
+                    sb.append("D=A\n");
+                    break;
+                default:
+                    sb.append("@" + fileName + "." + command.arg2 + "\n");
+                    sb.append("D=M\n");
+                    break;
+            }
+        }
+
+        /** Stores D into the location named by a pop command
+         *  Args:       StringBuilder sb - where the output asm code of this function is stored
+         *              Command command - pop command with a valid, non-constant segment
+         *              String fileName - name of file, used for static variable access
+         *  Returns:    void */
+        private void store(StringBuilder sb, Command command, String fileName) {
+            SEGMENT s = command.segment;
+            switch (s.type) {
+                case ADDRESSPOINTER:
+                    if (command.arg2 <= MAX_INCREMENTS) {
+                        sb.append("@" + s.value + "\n");
+                        sb.append("A=M\n");
+                        for (int k = 0; k < command.arg2; k++) sb.append("A=A+1\n");
+                    } else {
+                        // keep the value in R14 while the address is computed
+                        sb.append("@R14\n");
+                        sb.append("M=D\n");
+                        sb.append("@" + s.value + "\n");
+                        sb.append("D=M\n");
+                        sb.append("@" + command.arg2 + "\n");
+                        sb.append("D=D+A\n");
+                        sb.append("@R13\n");
+                        sb.append("M=D\n");
+                        sb.append("@R14\n");
+                        sb.append("D=M\n");
+                        sb.append("@R13\n");
+                        sb.append("A=M\n");
+                    }
+                    break;
+                case ADDRESS:
+                    sb.append("@" + (Integer.parseInt(s.value) + command.arg2) + "\n");
+                    break;
+                default:
+                    sb.append("@" + fileName + "." + command.arg2 + "\n");
+                    break;
+            }
+            sb.append("M=D\n");
+        }
+    }
+
+    /** Class for containing one parsed line of generated asm: an A-instruction, C-instruction or label */
+    private static class Instruction {
+
+        String symbol = null;   // for A-instructions and labels, the symbol or number
+        String dest = "";       // for C-instructions, the dest field, possibly empty
+        String comp = null;     // for C-instructions, the comp field
+        String jump = "";       // for C-instructions, the jump field, possibly empty
+        boolean label = false;  // true if this is a (label) pseudo-instruction
+
+        /** Constructor: Create Instruction instance from one line of generated asm
+         *  Args:       String line - line of asm without comments or whitespace
+         *  Returns:    Instruction - a new instance of Instruction */
+        private Instruction(String line) {
+            if (line.startsWith("@")) {
+                this.symbol = line.substring(1);
+            } else if (line.startsWith("(")) {
+                this.symbol = line.substring(1, line.length() - 1);
+                this.label = true;
+            } else {
+                int eq = line.indexOf('=');
+                int semi = line.indexOf(';');
+                if (eq >= 0) this.dest = line.substring(0, eq);
+                this.comp = line.substring(eq + 1, semi >= 0 ? semi : line.length());
+                if (semi >= 0) this.jump = line.substring(semi + 1);
+            }
+        }
+
+        /** Determines if this is an A-instruction
+         *  Returns:    boolean - true if this instruction is @symbol */
+        private boolean isA() {
+            return this.symbol != null && !this.label;
+        }
+
+        /** Determines if this instruction has no effect other than setting A
+         *  Returns:    boolean - true for A-instructions and C-instructions with dest A and no jump */
+        private boolean onlySetsA() {
+            return this.isA() || (this.comp != null && this.dest.equals("A") && this.jump.isEmpty());
+        }
+
+        /** Returns the value of a numeric A-instruction
+         *  Returns:    int - the constant loaded into A, or -1 if this is not @number */
+        private int constant() {
+            if (!this.isA() || this.symbol.isEmpty()) return -1;
+            for (int i = 0; i < this.symbol.length(); i++) {
+                if (!Character.isDigit(this.symbol.charAt(i))) return -1;
+            }
+            return Integer.parseInt(this.symbol);
+        }
+
+        /** Returns the instruction as a line of asm */
+        public String toString() {
+            if (this.label) return "(" + this.symbol + ")";
+            if (this.isA()) return "@" + this.symbol;
+            return (this.dest.isEmpty() ? "" : this.dest + "=") + this.comp + (this.jump.isEmpty() ? "" : ";" + this.jump);
+        }
+    }
+
+    /** Rewrites short sequences of the asm generated by CodeWriter into shorter equivalent sequences
+     *  Patterns never span a label, so code that is jumped into is left as generated */
+    private static class Peephole {
+
+        // tail of every push: stack top = D, SP++
+        private static final String[] PUSH_D = {"@SP", "M=M+1", "A=M-1", "M=D"};
+        // head of pop, binary arithmetic, comparison and if-goto: SP--, D = stack top
+        private static final String[] POP_D = {"@SP", "AM=M-1", "D=M"};
+        // pop into a pointer or fixed segment, after its address has been computed into D
+        private static final String[] POP_VIA_R13 = {"@R13", "M=D", "@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D"};
+        private static final String[] POINTERS = {"LCL", "ARG", "THIS", "THAT"};
+        private static final int MAX_INCREMENTS = 6; // largest index reached with A=A+1 instead of going through R13
+
+        /** Optimizes generated asm and writes the result
+         *  Args:       PrintWriter pw - where the optimized asm is written
+         *              String asm - asm produced by CodeWriter, one instruction per line
+         *  Returns:    void */
+        private static void write(PrintWriter pw, String asm) {
+            ArrayList<Instruction> program = new ArrayList<Instruction>();
+            for (String line : asm.split("\n")) {
+                if (!line.isEmpty()) program.add(new Instruction(line));
+            }
+            int before = countInstructions(program);
+            ArrayList<Instruction> optimized = optimize(program);
+            int after = countInstructions(optimized);
+            for (Instruction instruction : optimized) pw.println(instruction);
+            System.out.println("Peephole: " + before + " -> " + after + " instructions.");
+        }
+
+        /** Applies the rewrite rules until none of them matches
+         *  Args:       ArrayList<Instruction> program - parsed asm
+         *  Returns:    ArrayList<Instruction> - optimized asm */
+        private static ArrayList<Instruction> optimize(ArrayList<Instruction> program) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                ArrayList<Instruction> next = new ArrayList<Instruction>(program.size());
+                int i = 0;
+                while (i < program.size()) {
+                    int matched = rewrite(program, i, next);
+                    if (matched > 0) {
+                        changed = true;
+                        i += matched;
+                    } else {
+                        next.add(program.get(i++));
+                    }
+                }
+                program = next;
+            }
+            return program;
+        }
+
+        /** Tries each rewrite rule at one position
+         *  Args:       ArrayList<Instruction> program - parsed asm
+         *              int i - position to match at
+         *              ArrayList<Instruction> out - where the replacement is appended
+         *  Returns:    int - number of instructions replaced, or 0 if no rule matched */
+        private static int rewrite(ArrayList<Instruction> program, int i, ArrayList<Instruction> out) {
+            // push followed by pop into D: D already holds the value, only A = SP is left to restore
+            if (matches(program, i, PUSH_D) && matches(program, i + PUSH_D.length, POP_D)) {
+                emit(out, "@SP", "A=M");
+                return PUSH_D.length + POP_D.length;
+            }
+            // pop into temp or pointer: the address is a constant, so R13 is not needed
+            if (matches(program, i + 4, POP_VIA_R13) && matches(program, i, "", "D=A", "", "D=D+A")
+                    && program.get(i).constant() >= 0 && program.get(i + 2).constant() >= 0) {
+                int address = program.get(i).constant() + program.get(i + 2).constant();
+                emit(out, POP_D);
+                emit(out, "@" + address, "M=D");
+                return 4 + POP_VIA_R13.length;
+            }
+            // push followed by pop into local, argument, this or that: store D through the segment pointer
+            if (matches(program, i, PUSH_D) && matches(program, i + PUSH_D.length + 4, POP_VIA_R13)
+                    && matches(program, i + PUSH_D.length, "", "D=M", "", "D=D+A")) {
+                Instruction segment = program.get(i + PUSH_D.length);
+                int index = program.get(i + PUSH_D.length + 2).constant();
+                if (Arrays.asList(POINTERS).contains(segment.symbol) && index >= 0) {
+                    if (index <= MAX_INCREMENTS) {
+                        emit(out, "@" + segment.symbol, "A=M");
+                        for (int k = 0; k < index; k++) emit(out, "A=A+1");
+                        emit(out, "M=D");
+                    } else {
+                        emit(out, "@R14", "M=D", "@" + segment.symbol, "D=M", "@" + index, "D=D+A",
+                                "@R13", "M=D", "@R14", "D=M", "@R13", "A=M", "M=D");
+                    }
+                    return PUSH_D.length + 4 + POP_VIA_R13.length;
+                }
+            }
+            // push from local, argument, this or that at index 0 or 1: add the index to M directly
+            if (matches(program, i, "", "D=A", "", "A=D+M", "D=M")
+                    && Arrays.asList(POINTERS).contains(program.get(i + 2).symbol)
+                    && (program.get(i).constant() == 0 || program.get(i).constant() == 1)) {
+                emit(out, "@" + program.get(i + 2).symbol, program.get(i).constant() == 0 ? "A=M" : "A=M+1", "D=M");
+                return 5;
+            }
+            // push from temp or pointer: the address is a constant
+            if (matches(program, i, "", "D=A", "", "A=D+A", "D=M")
+                    && program.get(i).constant() >= 0 && program.get(i + 2).constant() >= 0) {
+                emit(out, "@" + (program.get(i).constant() + program.get(i + 2).constant()), "D=M");
+                return 5;
+            }
+            // A = M followed by A = A-1
+            if (matches(program, i, "A=M", "A=A-1")) {
+                emit(out, "A=M-1");
+                return 2;
+            }
+            // a load of A that is overwritten before it is used
+            if (i + 1 < program.size() && program.get(i).onlySetsA() && program.get(i + 1).isA()) {
+                return 1;
+            }
+            return 0;
+        }
+
+        /** Determines if the program matches a pattern at a position
+         *  Args:       ArrayList<Instruction> program - parsed asm
+         *              int i - position to match at
+         *              String... pattern - asm lines, where "" matches any A-instruction
+         *  Returns:    boolean - true if every line of the pattern matches */
+        private static boolean matches(ArrayList<Instruction> program, int i, String... pattern) {
+            if (i + pattern.length > program.size()) return false;
+            for (int k = 0; k < pattern.length; k++) {
+                Instruction instruction = program.get(i + k);
+                if (pattern[k].isEmpty() ? !instruction.isA() : !pattern[k].equals(instruction.toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Appends asm lines to the optimized program */
+        private static void emit(ArrayList<Instruction> out, String... lines) {
+            for (String line : lines) out.add(new Instruction(line));
+        }
+
+        /** Returns the number of instructions in a program, not counting labels */
+        private static int countInstructions(ArrayList<Instruction> program) {
+            int count = 0;
+            for (Instruction instruction : program) {
+                if (!instruction.label) count++;
+            }
+            return count;
+        }
+    }
+
+    /** Executes parsed vm commands directly, with the same memory layout and call frames as translated code */
+    private static class Interpreter {
+
+        private static final int RAM_SIZE = 32768;      // words of memory, as on the hack computer
+        private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4; // pointer registers in ram
+        private static final int STACK_BASE = 256;      // initial value of SP, as set by writeInit
+        private static final int FIRST_STATIC = 16;     // first address given to static variables
+        private static final int FRAME_SIZE = 5;        // words pushed by a call: return address, LCL, ARG, THIS, THAT
+
+        final int[] ram = new int[RAM_SIZE];            // memory holding the stack, segments and statics
+        long steps = 0;                                 // commands executed so far
+        boolean halted = false;                         // set when the program reaches a goto onto its own label
+        private final Command[] program;                // commands of all input files, in order
+        private final int[] targets;                    // jump target or function start of each command, else -1
+        private final int[] staticAddresses;            // ram address of each static push/pop, else -1
+        private int pc;                                 // index of the next command
+
+        /** Constructor: flattens the parsed files into one program and resolves every label, function and static
+         *  Args:       Parser[] parsedInputFiles - parsed input files
+         *  Returns:    Interpreter - a new instance, ready to run Sys.init */
+        private Interpreter(Parser[] parsedInputFiles) {
+            ArrayList<Command> commands = new ArrayList<Command>();
+            ArrayList<String> fileNames = new ArrayList<String>();
+            ArrayList<String> functionNames = new ArrayList<String>();
+            HashMap<String, Integer> labels = new HashMap<String, Integer>();
+            for (Parser p : parsedInputFiles) {
+                String fileName = p.vmFile.getName();
+                fileName = fileName.substring(0, fileName.lastIndexOf("."));
+                String functionName = "";
+                for (Command c : p.commandList) {
+                    functionName = CodeWriter.updateFunctionName(c, functionName);
+                    // labels are scoped the same way buildLabel scopes them
+                    if (c.type == COMMAND_TYPE.FUNCTION) labels.put(c.arg1, commands.size());
+                    if (c.type == COMMAND_TYPE.LABEL) labels.put(functionName + "$" + c.arg1, commands.size());
+                    commands.add(c);
+                    fileNames.add(fileName);
+                    functionNames.add(functionName);
+                }
+            }
+            this.program = commands.toArray(new Command[commands.size()]);
+            this.targets = new int[this.program.length];
+            this.staticAddresses = new int[this.program.length];
+            HashMap<String, Integer> statics = new HashMap<String, Integer>();
+            for (int i = 0; i < this.program.length; i++) {
+                Command c = this.program[i];
+                this.targets[i] = -1;
+                this.staticAddresses[i] = -1;
+                String key = null;
+                if (c.type == COMMAND_TYPE.GOTO || c.type == COMMAND_TYPE.IF) {
+                    key = functionNames.get(i) + "$" + c.arg1;
+                } else if (c.type == COMMAND_TYPE.CALL) {
+                    key = c.arg1;
+                } else if (c.type == COMMAND_TYPE.PUSH || c.type == COMMAND_TYPE.POP) {
+                    // statics get addresses in order of first use, as the assembler would give them
+                    if (c.getSegment() == SEGMENT.STATIC) {
+                        String name = fileNames.get(i) + "." + c.arg2;
+                        if (!statics.containsKey(name)) statics.put(name, FIRST_STATIC + statics.size());
+                        this.staticAddresses[i] = statics.get(name);
+                    }
+                }
+                if (key != null) {
+                    Integer target = labels.get(key);
+                    if (target == null) {
+                        System.err.println("Error: no label or function named " + key + " for: " + c);
+                        System.exit(1);
+                    }
+                    this.targets[i] = target;
+                }
+            }
+            // bootstrap: SP = 256, call Sys.init
+            Integer init = labels.get("Sys.init");
+            if (init == null) {
+                System.err.println("Error: no function named Sys.init to start the program.");
+                System.exit(1);
+            }
+            this.ram[SP] = STACK_BASE;
+            this.call(init, 0, this.program.length);
+        }
+
+        /** Pushes a frame and jumps to a function, as buildCall does
+         *  Args:       int target - index of the function command
+         *              int nArgs - number of arguments already pushed
+         *              int returnAddress - index of the command to return to
+         *  Returns:    void */
+        private void call(int target, int nArgs, int returnAddress) {
+            int[] ram = this.ram;
+            int sp = ram[SP];
+            ram[sp] = returnAddress;
+            ram[sp + 1] = ram[LCL];
+            ram[sp + 2] = ram[ARG];
+            ram[sp + 3] = ram[THIS];
+            ram[sp + 4] = ram[THAT];
+            sp += FRAME_SIZE;
+            ram[ARG] = sp - nArgs - FRAME_SIZE;
+            ram[LCL] = sp;
+            ram[SP] = sp;
+            this.pc = target;
+        }
+
+        /** Runs at most maxSteps commands, stopping early if the program halts
+         *  Args:       long maxSteps - most commands to execute
+         *  Returns:    void */
+        private void run(long maxSteps) {
+            final int[] ram = this.ram;
+            final Command[] program = this.program;
+            int pc = this.pc;
+            long n = 0;
+            while (n < maxSteps) {
+                // returning from the bootstrap call ends the program
+                if (pc >= program.length) {
+                    this.halted = true;
+                    break;
+                }
+                Command c = program[pc];
+                n++;
+                int sp = ram[SP];
+                switch (c.type) {
+                    case ADD: ram[SP] = --sp; ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]); break;
+                    case SUB: ram[SP] = --sp; ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]); break;
+                    case AND: ram[SP] = --sp; ram[sp - 1] = ram[sp - 1] & ram[sp]; break;
+                    case OR:  ram[SP] = --sp; ram[sp - 1] = ram[sp - 1] | ram[sp]; break;
+                    case NEG: ram[sp - 1] = (short) -ram[sp - 1]; break;
+                    case NOT: ram[sp - 1] = ~ram[sp - 1]; break;
+                    case EQ:
+                    case GT:
+                    case LT: {
+                        // buildCompare tests the sign of the 16-bit difference y - x
+                        ram[SP] = --sp;
+                        int diff = (short) (ram[sp] - ram[sp - 1]);
+                        boolean result = (c.type == COMMAND_TYPE.EQ) ? diff == 0
+                                : (c.type == COMMAND_TYPE.GT) ? diff < 0 : diff > 0;
+                        ram[sp - 1] = result ? -1 : 0;
+                        break;
+                    }
+                    case PUSH:
+                        if (c.segment == null) cannotExecute(c);
+                        ram[sp] = this.read(c, pc);
+                        ram[SP] = sp + 1;
+                        break;
+                    case POP:
+                        if (c.segment == null) cannotExecute(c);
+                        ram[SP] = --sp;
+                        this.write(c, pc, ram[sp]);
+                        break;
+                    case LABEL:
+                        break;
+                    case GOTO:
+                        // label X / goto X is the usual way to end a vm program
+                        if (this.targets[pc] == pc - 1) {
+                            this.halted = true;
+                            this.pc = pc;
+                            this.steps += n;
+                            return;
+                        }
+                        pc = this.targets[pc];
+                        continue;
+                    case IF:
+                        ram[SP] = --sp;
+                        if (ram[sp] != 0) {
+                            pc = this.targets[pc];
+                            continue;
+                        }
+                        break;
+                    case FUNCTION:
+                        // initialize nVars locals to 0
+                        for (int i = 0; i < c.arg2; i++) ram[sp + i] = 0;
+                        ram[SP] = sp + c.arg2;
+                        break;
+                    case CALL:
+                        this.call(this.targets[pc], c.arg2, pc + 1);
+                        pc = this.pc;
+                        continue;
+                    case RETURN: {
+                        // restore the caller's frame, as buildReturn does
+                        int frame = ram[LCL];
+                        int ret = ram[frame - 5];
+                        ram[ram[ARG]] = ram[sp - 1];
+                        ram[SP] = ram[ARG] + 1;
+                        ram[THAT] = ram[frame - 1];
+                        ram[THIS] = ram[frame - 2];
+                        ram[ARG] = ram[frame - 3];
+                        ram[LCL] = ram[frame - 4];
+                        pc = ret;
+                        continue;
+                    }
+                    default:
+                        cannotExecute(c);
+                }
+                pc++;
+            }
+            this.pc = pc;
+            this.steps += n;
+        }
+
+        /** Reports a command that cannot be executed, such as a bad line or a push/pop with an unknown segment,
+         *  and exits */
+        private static void cannotExecute(Command c) {
+            System.err.println("Error: cannot execute command: " + c);
+            System.exit(1);
+        }
+
+        /** Returns the ram address named by a push/pop command's segment and index
+         *  Args:       Command c - push or pop command
+         *              int pc - index of the command, used to find static addresses
+         *  Returns:    int - ram address */
+        private int address(Command c, int pc) {
+            switch (c.segment) {
+                case LOCAL:     return this.ram[LCL] + c.arg2;
+                case ARGUMENT:  return this.ram[ARG] + c.arg2;
+                case THIS:      return this.ram[THIS] + c.arg2;
+                case THAT:      return this.ram[THAT] + c.arg2;
+                case POINTER:   return THIS + c.arg2;
+                case TEMP:      return 5 + c.arg2;
+                default:        return this.staticAddresses[pc];
+            }
+        }
+
+        /** Returns the value a push command reads */
+        private int read(Command c, int pc) {
+            if (c.segment == SEGMENT.CONSTANT) return (short) c.arg2;
+            return this.ram[this.address(c, pc) & (RAM_SIZE - 1)];
+        }
+
+        /** Stores the value a pop command writes */
+        private void write(Command c, int pc, int value) {
+            if (c.segment == SEGMENT.CONSTANT) return;
+            this.ram[this.address(c, pc) & (RAM_SIZE - 1)] = value;
+        }
     }
 
     /** Class for containing information about a .vm command */
@@ -721,9 +2403,39 @@ public class VM2 {
         int arg2 = DEFAULT_ARG2;    // command's second argument
         SEGMENT segment = null;     // for memory access commands, the segment operand
 
-        // default constructor
+        // command types and segments by the first char of their token, for ByteScanner
+        private static final ByteScanner.Table<COMMAND_TYPE> COMMANDS = new ByteScanner.Table<COMMAND_TYPE>();
+        private static final ByteScanner.Table<SEGMENT> SEGMENTS = new ByteScanner.Table<SEGMENT>();
+        static {
+            for (COMMAND_TYPE c : COMMAND_TYPE.values()) {
+                if (!c.token.isEmpty()) COMMANDS.put(c.token, c);
+            }
+            for (SEGMENT seg : SEGMENT.values()) SEGMENTS.put(seg.token, seg);
+        }
+
+        // default constructor, for commands filled in by scan
         private Command() {}
 
+        /** Reads the next command of a memory-mapped file, for -mmap
+         *  Gives the same Command as Parser.clean and Command(String), but resolves command and segment tokens by
+         *  their first byte and parses arg2 in place, so only label and function names become (interned) Strings
+         *  Args:       ByteScanner scanner - scanner of the input file
+         *  Returns:    Command - next command, or null at the end of the file */
+        private static Command scan(ByteScanner scanner) {
+            if (!scanner.nextLine()) return null;
+            Command c = new Command();
+            c.type = scanner.find(0, COMMANDS);
+            if (c.type == null) c.type = COMMAND_TYPE.OTHER;
+            if (scanner.tokens() > 1) {
+                if (c.type == COMMAND_TYPE.PUSH || c.type == COMMAND_TYPE.POP) c.segment = scanner.find(1, SEGMENTS);
+                c.arg1 = (c.segment != null) ? c.segment.token : scanner.name(1);
+                if (scanner.tokens() > 2) c.arg2 = scanner.number(2);
+            }
+            // unknown commands keep their text for error messages
+            if (c.type == COMMAND_TYPE.OTHER) c.line = scanner.line();
+            return c;
+        }
+
         /** Constructor: Create Command instance from cleaned input line of .vm file
          *  Args:       String line - cleaned line of .vm file to be parsed into a Command object
          *  Returns:    Command - a new instance of Command */
@@ -759,6 +2471,8 @@ public class VM2 {
          *   Args:      void
          *   Returns:   SEGMENT - this Command's segment type, if applicable */
         private SEGMENT getSegment() {
+            // scan sets the segment while parsing
+            if (this.segment != null) return this.segment;
             if (this.arg1 == null) {
                 System.err.println("Error: tried to get segment type of null arg1.");
                 return (this.segment = null);
@@ -771,5 +2485,13 @@ public class VM2 {
             System.err.println("Error: arg1 does not match any known segment.");
             return (this.segment = null);
         }
+
+        /** Returns the original line, or for commands made by scan the same text rebuilt from the fields */
+        public String toString() {
+            if (this.line != null) return this.line;
+            if (this.arg1 == null) return this.type.token;
+            if (this.type.supertype == CMD_SUPERTYPE.PROGRAM_FLOW) return this.type.token + " " + this.arg1;
+            return this.type.token + " " + this.arg1 + " " + this.arg2;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package JackCompiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * BuildCache.java
+ * MPCS 52011 - Project 11
+ * Content-hash cache of generated .vm files, kept in a .jackcache directory next to the
+ * .jack files. An entry is named after its source file and a SHA-256 key of the compiler
+ * version, the file name and the file contents, e.g. Main.jack.3f2a...9c.vm, and holds the
+ * code generated for that source. Each source file has at most one entry.
+ */
+class BuildCache {
+    private static final String CACHE_DIR = ".jackcache";  // cache directory, next to the .jack files
+    private static final String ENTRY_EXT = ".vm";         // extension of cache entries
+    private static final String HASH = "SHA-256";          // digest used for keys
+    private static final int VERSION = 2;                  // changes whenever the generated code or what is stored changes
+
+    /**
+     * BuildCache.directory
+     * Get the cache directory for a .jack file
+     * @param f - .jack file
+     * @return the .jackcache directory in the same directory as f
+     */
+    static File directory(File f) {
+        return new File(f.getAbsoluteFile().getParentFile(), CACHE_DIR);
+    } // end method BuildCache.directory
+
+    /**
+     * BuildCache.key
+     * Compute the key of a .jack file from the compiler version, its name and its contents
+     * @param f - .jack file
+     * @return hex digest
+     * @throws IOException from reading the file
+     */
+    static String key(File f) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH);
+            digest.update((VERSION + " " + f.getName() + "\n").getBytes("UTF-8"));
+            digest.update(Files.readAllBytes(f.toPath()));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b & 0xFF));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            System.err.println("Error: no " + HASH + " digest available for -cache.");
+            System.exit(1);
+        }
+        return null;
+    } // end method BuildCache.key
+
+    /**
+     * BuildCache.entry
+     * Get the cache entry for a .jack file and key
+     * @param f - .jack file
+     * @param key - key returned by BuildCache.key
+     * @return the entry file, which may not exist
+     */
+    private static File entry(File f, String key) {
+        return new File(directory(f), f.getName() + "." + key + ENTRY_EXT);
+    } // end method BuildCache.entry
+
+    /**
+     * BuildCache.restore
+     * Bring a .vm file up to date from the cache, writing it only if its contents differ
+     * @param f - .jack file
+     * @param key - key returned by BuildCache.key
+     * @param vmFile - .vm file generated from f
+     * @return true if the cache had an entry for the key, false if f must be compiled
+     */
+    static boolean restore(File f, String key, File vmFile) {
+        File entry = entry(f, key);
+        if (!entry.isFile()) return false;
+        try {
+            byte[] cached = Files.readAllBytes(entry.toPath());
+            if (vmFile.isFile() && Arrays.equals(cached, Files.readAllBytes(vmFile.toPath()))) return true;
+            Files.write(vmFile.toPath(), cached);
+            return true;
+        } catch (IOException ioe) {
+            // an unreadable entry is compiled again
+            return false;
+        }
+    } // end method BuildCache.restore
+
+    /**
+     * BuildCache.store
+     * Save a newly generated .vm file as the entry for its source, replacing older entries
+     * @param f - .jack file
+     * @param key - key returned by BuildCache.key
+     * @param vmFile - .vm file generated from f
+     */
+    static void store(File f, String key, File vmFile) {
+        File dir = directory(f);
+        try {
+            Files.createDirectories(dir.toPath());
+            // write to a temporary file first, so an interrupted run never leaves half an entry
+            Path tmp = Files.createTempFile(dir.toPath(), f.getName(), ".tmp");
+            Files.copy(vmFile.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            File entry = entry(f, key);
+            Files.move(tmp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // entries for earlier versions of this file are no longer needed
+            File[] entries = dir.listFiles();
+            if (entries != null) {
+                for (File old : entries) {
+                    String name = old.getName();
+                    if (name.startsWith(f.getName() + ".") && name.endsWith(ENTRY_EXT) && !old.equals(entry)) {
+                        old.delete();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            System.err.println("Warning: IOException when writing to cache directory " + dir.getPath());
+        }
+    } // end method BuildCache.store
+} // end class BuildCache
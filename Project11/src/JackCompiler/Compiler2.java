@@ -1,6 +1,10 @@
 package JackCompiler;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 /**
  * Compiler2.java
@@ -9,6 +13,13 @@ import java.io.*;
  * Project 11 Code Generation.
  */
 public class Compiler2 {
+    private static final String PARALLEL_FLAG = "-parallel";   // option to compile each file as a ForkJoinPool task
+    private static final String CACHE_FLAG = "-cache";         // option to reuse the output of unchanged files
+    private static final String DAEMON_FLAG = "-daemon";       // option to serve compile requests on a socket
+    private static final String SEND_FLAG = "-send";           // option to pass a compile request to a daemon
+    private static boolean parallel = false;                    // when true, files are compiled in parallel
+    private static boolean cacheMode = false;                   // when true, unchanged files come from BuildCache
+
     /**
      * Compiler2.main
      * Main driver that parses and tokenizes and code-generates for Jack source files
@@ -16,17 +27,36 @@ public class Compiler2 {
      * for which all contained .jack files should be parsed and tokenized and code-generated
      */
     public static void main(String[] args) {
+        if (args.length == 2 && args[0].equals(DAEMON_FLAG)) {
+            Daemon.serve(Paths.get(args[1]));
+        } else if (args.length >= 2 && args[0].equals(SEND_FLAG)) {
+            if (!Daemon.send(Paths.get(args[1]), Arrays.copyOfRange(args, 2, args.length))) System.exit(1);
+        } else if (!run(args)) {
+            System.exit(1);
+        }
+    } // end method Compiler2.main
+
+    /**
+     * Compiler2.run
+     * Compile the files named by one set of arguments, for main or for a daemon request
+     * @param args - options followed by a .jack filename or a directory
+     * @return true if the arguments were valid, false otherwise
+     */
+    static boolean run(String[] args) {
+        // strip leading options before reading the file name
+        args = parseOptions(args);
+        if (args == null) return false;
         // check if file is valid
         File file = getFile(args);
         if (file == null) {
             System.err.println("Error: input argument is not an existing file or directory.");
-            System.exit(1);
+            return false;
         }
         // in case file is directory, get a list of actual target files
         LinkedList<File> fileList = listFiles(file);
         if (fileList.isEmpty()) {
             System.err.println("Error: file " + file.getAbsolutePath() + " is not a .jack file or a directory containing .jack files.");
-            System.exit(1);
+            return false;
         } else {
             System.out.println("To be processed: ");
             for (File f : fileList) printCanonicalPath(f);
@@ -34,7 +64,32 @@ public class Compiler2 {
         // tokenize and parse each file in list
         compile(fileList);
         System.out.println("Finished.");
-    } // end method Compiler2.main
+        return true;
+    } // end method Compiler2.run
+
+    /**
+     * Compiler2.parseOptions
+     * Set the option fields from the leading command-line arguments
+     * @param args - String[] of command-line arguments
+     * @return the arguments that follow the options, or null if an option is unknown
+     */
+    private static String[] parseOptions(String[] args) {
+        parallel = false;
+        cacheMode = false;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (args[i].equals(PARALLEL_FLAG)) {
+                parallel = true;
+            } else if (args[i].equals(CACHE_FLAG)) {
+                cacheMode = true;
+            } else {
+                System.err.println("Error: unknown option \"" + args[i] + "\".");
+                return null;
+            }
+            i++;
+        }
+        return Arrays.copyOfRange(args, i, args.length);
+    } // end method Compiler2.parseOptions
 
     /**
      * Compiler2.getFile
@@ -147,25 +202,210 @@ public class Compiler2 {
 
     /**
      * Compiler2.compile
-     * Tokenize and Parse each File in an array of Files
-     * @param fileList - LinkedList of Files to tokenize and parse
+     * Tokenize, parse and generate code for each File in a list of Files.
+     * With -parallel, each file is a task on the common ForkJoinPool. Its progress messages and
+     * its errors and warnings are kept until all tasks finish, then printed file by file in list
+     * order, the progress messages of a file to System.out and its errors to System.err.
+     * @param fileList - LinkedList of Files to compile
      */
     private static void compile(LinkedList<File> fileList) {
         System.out.println("\nWorking...");
-        for (File f : fileList) {
-            try {
-                System.out.println("Tokenizing " + f.getName());
-                LinkedList<Token> tokenList = Token.getTokenList(f);
-//                Token.writeTokenList(tokenList, getTokenizedFileName(f));
-                System.out.println("Parsing " + f.getName());
-                ParseTree tree = new ParseTree(tokenList);
-//                tree.writeTree(getParsedFileName(f));
-                System.out.println("Generating code for " + f.getName());
-                tree.writeCode(getVMFileName(f));
-                System.out.println();
-            } catch (IOException ioe) {
-                System.err.println("Error: IOException when trying to create Tokenizer or Parser output .xml");
+        int compiled = 0;
+        if (!parallel) {
+            for (File f : fileList) {
+                if (compileFile(f, System.out, System.err)) compiled++;
+            }
+        } else {
+            ArrayList<CompileTask> tasks = new ArrayList<>();
+            for (File f : fileList) tasks.add(new CompileTask(f));
+            ForkJoinTask.invokeAll(tasks);
+            for (CompileTask task : tasks) {
+                System.out.print(task.log);
+                System.out.flush();
+                System.err.print(task.errors);
+                System.err.flush();
+                if (task.compiled) compiled++;
+            }
+        }
+        if (cacheMode) System.out.println("Cache: compiled " + compiled + " of " + fileList.size() + " files.");
+    } // end method Compiler2.compile
+
+    /**
+     * Compiler2.compileFile
+     * Tokenize, parse and generate code for one .jack file.
+     * With -cache, a file whose key is in BuildCache is not compiled; its .vm file is restored instead.
+     * A file whose compile reported an error is not stored, so its errors are reported on every run.
+     * @param f - .jack file to compile
+     * @param log - where progress messages are printed
+     * @param err - where errors and warnings in the file are printed
+     * @return true if the file was compiled, false if its output came from the cache
+     */
+    private static boolean compileFile(File f, PrintStream log, PrintStream err) {
+        try {
+            String key = cacheMode ? BuildCache.key(f) : null;
+            File vmFile = new File(getVMFileName(f));
+            if (cacheMode && BuildCache.restore(f, key, vmFile)) {
+                log.println("Up to date: " + f.getName());
+                return false;
             }
+            log.println("Tokenizing and parsing " + f.getName());
+//            Token.writeTokenList(Token.getTokenList(f), getTokenizedFileName(f));
+            // tokens are read by the lexer as the parse tree consumes them
+            Diagnostics diagnostics = new Diagnostics(err);
+            ParseTree tree = new ParseTree(new TokenStream(new Lexer(f, diagnostics)));
+//            tree.writeTree(getParsedFileName(f));
+            log.println("Generating code for " + f.getName());
+            tree.writeCode(vmFile.getPath());
+            // a file with errors is not stored, so that it is compiled and reported again on every run
+            if (cacheMode && !diagnostics.failed()) BuildCache.store(f, key, vmFile);
+            log.println();
+        } catch (IOException ioe) {
+            err.println("Error: IOException when trying to create Tokenizer or Parser output .xml");
         }
-    } // end method Compiler2.tokenizeAndParse
+        return true;
+    } // end method Compiler2.compileFile
+
+    /**
+     * Compiler2.CompileTask
+     * Compiles one file on a ForkJoinPool, keeping its messages, errors included, until it is done.
+     * Every class has its own SymbolTable, label numbers included, so tasks share no state.
+     */
+    private static class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;           // tasks are never serialized
+        private File file;                                          // .jack file to compile
+        private ByteArrayOutputStream log = new ByteArrayOutputStream(); // messages printed while compiling
+        private ByteArrayOutputStream errors = new ByteArrayOutputStream(); // errors and warnings in the file
+        private boolean compiled;                                   // false if the output came from the cache
+
+        /**
+         * Compiler2.CompileTask.CompileTask
+         * Constructor sets the file to compile
+         * @param file - .jack file to compile
+         */
+        CompileTask(File file) {
+            this.file = file;
+        } // end method Compiler2.CompileTask.CompileTask
+
+        /**
+         * Compiler2.CompileTask.compute
+         * Compile the file, printing messages into the log and diagnostics into errors
+         */
+        protected void compute() {
+            this.compiled = compileFile(this.file, new PrintStream(this.log, true), new PrintStream(this.errors, true));
+        } // end method Compiler2.CompileTask.compute
+    } // end class Compiler2.CompileTask
+
+    /**
+     * Compiler2.Daemon
+     * Serves compile requests on a Unix domain socket, so that a build pays for JVM start-up,
+     * class loading and JIT warm-up once instead of on every run. A request is the usual
+     * arguments, one per line so that paths may hold spaces, ended by an empty line, e.g.
+     * "-cache", "/abs/path/ChaseGame", ""; the reply is everything the compiler prints,
+     * followed by a line "OK" or "FAILED". The request "stop" shuts it down.
+     * Requests are served one at a time, since the options are static fields.
+     */
+    private static class Daemon {
+        private static final String STOP = "stop";     // request that shuts the daemon down
+        private static final String OK = "OK";         // last line of the reply to a valid request
+        private static final String FAILED = "FAILED"; // last line of the reply to an invalid request
+
+        /**
+         * Compiler2.Daemon.serve
+         * Listen on a socket and compile each request until "stop" is received
+         * @param socket - path of the socket file, which is replaced if it exists
+         */
+        static void serve(Path socket) {
+            PrintStream out = System.out;
+            PrintStream err = System.err;
+            try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                Files.deleteIfExists(socket);
+                server.bind(UnixDomainSocketAddress.of(socket));
+                out.println("Listening on " + socket + ".");
+                boolean running = true;
+                while (running) {
+                    try (SocketChannel client = server.accept()) {
+                        BufferedReader in = new BufferedReader(Channels.newReader(client, "UTF-8"));
+                        PrintStream reply = new PrintStream(Channels.newOutputStream(client), true, "UTF-8");
+                        String[] request = readRequest(in);
+                        if (request.length == 0) continue;
+                        if (request.length == 1 && request[0].equals(STOP)) {
+                            reply.println(OK);
+                            out.println("Stopping.");
+                            running = false;
+                            continue;
+                        }
+                        // everything the compiler prints goes back to the client
+                        boolean valid = false;
+                        System.setOut(reply);
+                        System.setErr(reply);
+                        try {
+                            valid = run(request);
+                        } catch (RuntimeException re) {
+                            // a bad source file must not take the daemon down
+                            re.printStackTrace(reply);
+                        } finally {
+                            System.setOut(out);
+                            System.setErr(err);
+                        }
+                        reply.println(valid ? OK : FAILED);
+                        out.println("Request: " + String.join(" ", request) + (valid ? "" : " (failed)"));
+                    } catch (IOException ioe) {
+                        err.println("Warning: IOException when serving a request: " + ioe.getMessage());
+                    }
+                }
+            } catch (IOException ioe) {
+                err.println("Error: IOException when listening on socket " + socket);
+                System.exit(1);
+            } finally {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ioe) {
+                    err.println("Warning: could not remove socket " + socket);
+                }
+            }
+        } // end method Compiler2.Daemon.serve
+
+        /**
+         * Compiler2.Daemon.readRequest
+         * Read the arguments of one request, one per line, up to an empty line or the end of the stream
+         * @param in - reader on the client's socket
+         * @return the arguments of the request, empty if there are none
+         */
+        private static String[] readRequest(BufferedReader in) throws IOException {
+            ArrayList<String> request = new ArrayList<>();
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                request.add(line);
+            }
+            return request.toArray(new String[request.size()]);
+        } // end method Compiler2.Daemon.readRequest
+
+        /**
+         * Compiler2.Daemon.send
+         * Pass one request to a running daemon and print its reply. The file name is made
+         * absolute first, since the daemon resolves paths against its own working directory
+         * @param socket - path of the daemon's socket file
+         * @param args - the arguments to compile, as for main, or "stop"
+         * @return true if the daemon replied OK
+         */
+        static boolean send(Path socket, String[] args) {
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                PrintStream request = new PrintStream(Channels.newOutputStream(channel), true, "UTF-8");
+                boolean stop = args.length == 1 && args[0].equals(STOP);
+                for (String arg : args) {
+                    request.println((stop || arg.startsWith("-")) ? arg : new File(arg).getAbsolutePath());
+                }
+                request.println();
+                BufferedReader in = new BufferedReader(Channels.newReader(channel, "UTF-8"));
+                String last = null;
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    if (last != null) System.out.println(last);
+                    last = line;
+                }
+                return OK.equals(last);
+            } catch (IOException ioe) {
+                System.err.println("Error: cannot reach a daemon on socket " + socket);
+                return false;
+            }
+        } // end method Compiler2.Daemon.send
+    } // end class Compiler2.Daemon
 } // end class Compiler2
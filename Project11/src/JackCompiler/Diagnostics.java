@@ -0,0 +1,52 @@
+package JackCompiler;
+
+import java.io.*;
+
+/**
+ * Diagnostics.java
+ * MPCS 52011 - Project 11
+ * Where the errors and warnings of one compile are printed. The Lexer, the parse tree nodes
+ * and the SymbolTable of a file all print through the same Diagnostics, so that with -parallel
+ * each file's messages can be kept with that file instead of going straight to System.err.
+ */
+class Diagnostics {
+    private final PrintStream err;  // where messages are printed
+    private boolean failed;         // true once an error has been printed
+
+    /**
+     * Diagnostics.Diagnostics
+     * Constructor sets where messages are printed
+     * @param err - stream for errors and warnings, usually System.err
+     */
+    Diagnostics(PrintStream err) {
+        this.err = err;
+    } // end method Diagnostics.Diagnostics
+
+    /**
+     * Diagnostics.error
+     * Print an error
+     * @param message - text following "Error: "
+     */
+    void error(String message) {
+        this.failed = true;
+        this.err.println("Error: " + message);
+    } // end method Diagnostics.error
+
+    /**
+     * Diagnostics.warning
+     * Print a warning
+     * @param message - text following "Warning: "
+     */
+    void warning(String message) {
+        this.err.println("Warning: " + message);
+    } // end method Diagnostics.warning
+
+    /**
+     * Diagnostics.failed
+     * Check if an error was printed
+     * @return true if error has been called
+     */
+    boolean failed() {
+        return this.failed;
+    } // end method Diagnostics.failed
+} // end class Diagnostics
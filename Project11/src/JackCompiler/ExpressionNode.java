@@ -1,6 +1,5 @@
 package JackCompiler;
 
-import static JackCompiler.ParseTree.peek;
 import JackCompiler.StructureNode.*;
 import JackCompiler.SymbolTable.*;
 import JackCompiler.ParseTree.*;
@@ -50,10 +49,10 @@ class ExpressionNode extends Node {
      * ExpressionNode.ExpressionNode
      * Constructor creates new node using tokens from TokenList.
      * @param expressionType - expressionType of the node to be create
-     * @param iter - ListIterator used to access Tokens
+     * @param iter - Token stream used to access Tokens
      * @param indentLevel - indentation level of this node
      */
-    ExpressionNode(ExpressionType expressionType, ListIterator<Token> iter, int indentLevel) {
+    ExpressionNode(ExpressionType expressionType, TokenStream iter, int indentLevel) {
         super(NodeType.EXPRESSION, indentLevel);
         this.expressionType = expressionType;
         this.childIndent = (expressionType.printable) ? indentLevel + 1 : indentLevel;
@@ -79,7 +78,7 @@ class ExpressionNode extends Node {
                 this.children.add(new TokenNode(iter, this.childIndent));
                 break;
             default:
-                System.err.println("Error: attempted to make StatementNode from invalid StatementType.");
+                iter.diagnostics().error("attempted to make StatementNode from invalid StatementType.");
         }
     } // end method Expression.ExpressionNode
 
@@ -87,14 +86,14 @@ class ExpressionNode extends Node {
      * Expression.buildExpression
      * Set this Expression node instance to a EXPRESSION node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildExpression(ListIterator<Token> iter) {
+    private void buildExpression(TokenStream iter) {
         // term
         this.children.add(new ExpressionNode(ExpressionType.TERM, iter, this.childIndent));
         // (op term)*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != TokenType.SYMBOL || !("+-*/&|<>=").contains(token.symbolType.text)) {
                 break;
             }
@@ -109,13 +108,11 @@ class ExpressionNode extends Node {
      * Expression.buildTerm
      * Set this Expression node instance to a TERM node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildTerm(ListIterator<Token> iter) {
-        Token token = peek(iter);
-        iter.next();
-        Token token2 = peek(iter);
-        iter.previous();
+    private void buildTerm(TokenStream iter) {
+        Token token = iter.peek();
+        Token token2 = iter.peek2();
         // integerConstant | stringConstant | keywordConstant | varName | varName '[' expression ']' | subroutineCall | '(' expression ')' | unaryOp term
         // integerConstant | stringConstant
         if (token.tokenType == TokenType.INTEGER
@@ -173,14 +170,12 @@ class ExpressionNode extends Node {
      * Expression.buildSubroutineCall
      * Set this Expression node instance to a SUBROUTINE_CALL node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildSubroutineCall(ListIterator<Token> iter) {
+    private void buildSubroutineCall(TokenStream iter) {
         // subroutineName '(' expressionList ')' | (className | varName) '.' subroutineName '(' expressionList ')'
-        iter.next();
         // token after the next token
-        Token token2 = peek(iter);
-        iter.previous();
+        Token token2 = iter.peek2();
         if (token2.tokenType == TokenType.SYMBOL && token2.symbolType == SymbolType.OPEN_PAREN) {
             // subroutineName
             this.children.add(new StructureNode(StructureType.SUBROUTINE_NAME, iter, this.childIndent));
@@ -210,11 +205,11 @@ class ExpressionNode extends Node {
      * Expression.buildExpressionList
      * Set this Expression node instance to a EXPRESSION_LIST node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildExpressionList(ListIterator<Token> iter) {
+    private void buildExpressionList(TokenStream iter) {
         // (expression (',' expression)*)?
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType == TokenType.SYMBOL && token.symbolType == SymbolType.CLOSE_PAREN) {
             return;
         }
@@ -222,7 +217,7 @@ class ExpressionNode extends Node {
         this.children.add(new ExpressionNode(ExpressionType.EXPRESSION, iter, this.childIndent));
         // (',' expression)*
         while (true) {
-            token = peek(iter);
+            token = iter.peek();
             if (token.tokenType != TokenType.SYMBOL || token.symbolType != SymbolType.COMMA) {
                 break;
             }
@@ -284,7 +279,7 @@ class ExpressionNode extends Node {
                 this.writeKeywordConstant(pw, symbolTable);
                 break;
             default:
-                System.err.println("Error: attempted to compile ExpressionNode from invalid ExpressionType.");
+                symbolTable.diagnostics.error("attempted to compile ExpressionNode from invalid ExpressionType.");
         }
     } // end method ExpressionNode.writeCode
 
@@ -0,0 +1,210 @@
+package JackCompiler;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Lexer.java
+ * MPCS 52011 - Project 11
+ * Single-pass tokenizer for a .jack file. The file is read into a char array once, and each
+ * call to next moves a cursor past one token, so the time taken is linear in the file size.
+ * It gives the same tokens as the line/regex tokenizer it replaced, including its handling
+ * of "//": the rest of the line is dropped wherever it occurs, even inside a string or a
+ * block comment.
+ */
+class Lexer {
+    private static final Token.SymbolType[] SYMBOLS = new Token.SymbolType[128]; // symbol types by char
+
+    static {
+        for (Token.SymbolType s : Token.SymbolType.values()) SYMBOLS[s.text.charAt(0)] = s;
+    }
+
+    private final char[] buf;   // file contents, with line comments and terminal white space removed
+    private final int length;   // number of chars used in buf
+    private int pos;            // index of the next unread char
+    private final Diagnostics diagnostics; // where errors are printed
+
+    /**
+     * Lexer.Lexer
+     * Constructor reads the file, printing errors to System.err
+     * @param f - .jack file to be tokenized
+     * @throws IOException from reading the file
+     */
+    Lexer(File f) throws IOException {
+        this(f, new Diagnostics(System.err));
+    } // end method Lexer.Lexer
+
+    /**
+     * Lexer.Lexer
+     * Constructor reads the file and strips each line as the old tokenizer did.
+     * @param f - .jack file to be tokenized
+     * @param diagnostics - where errors in the file are printed
+     * @throws IOException from reading the file
+     */
+    Lexer(File f, Diagnostics diagnostics) throws IOException {
+        this.diagnostics = diagnostics;
+        char[] src = new String(Files.readAllBytes(f.toPath())).toCharArray();
+        this.buf = new char[src.length + 1];
+        int n = 0;
+        int start = 0;
+        while (start < src.length) {
+            // find the end of this line and the start of the next
+            int end = start;
+            while (end < src.length && !isLineEnd(src[end])) end++;
+            int next = end + 1;
+            if (end < src.length && src[end] == '\r' && next < src.length && src[next] == '\n') next++;
+            // drop a line comment, then trim
+            for (int i = start; i + 1 < end; i++) {
+                if (src[i] == '/' && src[i + 1] == '/') {
+                    end = i;
+                    break;
+                }
+            }
+            while (start < end && src[start] <= ' ') start++;
+            while (end > start && src[end - 1] <= ' ') end--;
+            System.arraycopy(src, start, this.buf, n, end - start);
+            n += end - start;
+            this.buf[n++] = '\n';
+            start = next;
+        }
+        this.length = n;
+    } // end method Lexer.Lexer
+
+    /**
+     * Lexer.isLineEnd
+     * Check if a char ends a line, as for Scanner.nextLine
+     * @param c - char to be checked
+     * @return true if c is a line separator
+     */
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+    } // end method Lexer.isLineEnd
+
+    /**
+     * Lexer.next
+     * Read the next token, skipping white space and block comments
+     * @return the next Token, or null at the end of the file or after an error
+     */
+    Token next() {
+        while (true) {
+            while (this.pos < this.length && this.buf[this.pos] <= ' ') this.pos++;
+            if (this.pos >= this.length) return null;
+            if (this.buf[this.pos] != '/' || this.pos + 1 >= this.length || this.buf[this.pos + 1] != '*') break;
+            // comment case: skip past the closing */, or to the end of the file
+            int close = this.indexOf("*/", this.pos + 2);
+            this.pos = (close < 0) ? this.length : close + 2;
+        }
+        int start = this.pos;
+        char c = this.buf[start];
+        if (c == '"') {
+            // string constant case
+            int close = this.indexOf("\"", start + 1);
+            if (close < 0) return this.error(start);
+            this.pos = close + 1;
+            return new Token(null, null, Token.TokenType.STRING, new String(this.buf, start + 1, close - start - 1));
+        }
+        if (c >= '0' && c <= '9') {
+            // number case
+            while (this.pos < this.length && this.buf[this.pos] >= '0' && this.buf[this.pos] <= '9') this.pos++;
+            return new Token(null, null, Token.TokenType.INTEGER, new String(this.buf, start, this.pos - start));
+        }
+        if (isWordChar(c)) {
+            // word case
+            while (this.pos < this.length && isWordChar(this.buf[this.pos])) this.pos++;
+            Token.KeywordType k = keyword(this.buf, start, this.pos);
+            if (k != null) return new Token(k, null, Token.TokenType.KEYWORD, k.text);
+            return new Token(null, null, Token.TokenType.IDENTIFIER, new String(this.buf, start, this.pos - start));
+        }
+        Token.SymbolType s = (c < SYMBOLS.length) ? SYMBOLS[c] : null;
+        if (s != null) {
+            // symbol case
+            this.pos++;
+            return new Token(null, s, Token.TokenType.SYMBOL, s.text);
+        }
+        return this.error(start);
+    } // end method Lexer.next
+
+    /**
+     * Lexer.error
+     * Report the rest of the line that cannot be tokenized, and stop tokenizing
+     * @param start - index where the bad token starts
+     * @return null, so that no more tokens are read
+     */
+    private Token error(int start) {
+        int end = start;
+        while (end < this.length && this.buf[end] != '\n') end++;
+        this.diagnostics.error("cannot parse " + new String(this.buf, start, end - start));
+        this.pos = this.length;
+        return null;
+    } // end method Lexer.error
+
+    /**
+     * Lexer.diagnostics
+     * Get where errors in the file are printed
+     * @return the Diagnostics given to the constructor
+     */
+    Diagnostics diagnostics() {
+        return this.diagnostics;
+    } // end method Lexer.diagnostics
+
+    /**
+     * Lexer.indexOf
+     * Find the next occurrence of a String in the buffer
+     * @param target - the chars to be found
+     * @param from - index where the search starts
+     * @return index of the first char of target, or -1 if not found
+     */
+    private int indexOf(String target, int from) {
+        for (int i = from; i + target.length() <= this.length; i++) {
+            int j = 0;
+            while (j < target.length() && this.buf[i + j] == target.charAt(j)) j++;
+            if (j == target.length()) return i;
+        }
+        return -1;
+    } // end method Lexer.indexOf
+
+    /**
+     * Lexer.isWordChar
+     * Check if a char can be part of a keyword or identifier
+     * @param c - char to be checked
+     * @return true for ASCII letters, digits and underscore
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    } // end method Lexer.isWordChar
+
+    /**
+     * Lexer.keyword
+     * Match a word to its keyword type by its first char and length, without making a String
+     * @param buf - chars holding the word
+     * @param start - index of the first char of the word
+     * @param end - index after the last char of the word
+     * @return the KeywordType spelled by the word, or null if it is an identifier
+     */
+    static Token.KeywordType keyword(char[] buf, int start, int end) {
+        int n = end - start;
+        Token.KeywordType k;
+        switch (buf[start]) {
+            case 'b': k = Token.KeywordType.BOOLEAN; break;
+            case 'c': k = (n == 5) ? Token.KeywordType.CLASS : (n == 4) ? Token.KeywordType.CHAR : Token.KeywordType.CONSTRUCTOR; break;
+            case 'd': k = Token.KeywordType.DO; break;
+            case 'e': k = Token.KeywordType.ELSE; break;
+            case 'f': k = (n == 8) ? Token.KeywordType.FUNCTION : (n > 1 && buf[start + 1] == 'i') ? Token.KeywordType.FIELD : Token.KeywordType.FALSE; break;
+            case 'i': k = (n == 2) ? Token.KeywordType.IF : Token.KeywordType.INT; break;
+            case 'l': k = Token.KeywordType.LET; break;
+            case 'm': k = Token.KeywordType.METHOD; break;
+            case 'n': k = Token.KeywordType.NULL; break;
+            case 'r': k = Token.KeywordType.RETURN; break;
+            case 's': k = Token.KeywordType.STATIC; break;
+            case 't': k = (n > 1 && buf[start + 1] == 'h') ? Token.KeywordType.THIS : Token.KeywordType.TRUE; break;
+            case 'v': k = (n == 3) ? Token.KeywordType.VARIABLE : Token.KeywordType.VOID; break;
+            case 'w': k = Token.KeywordType.WHILE; break;
+            default: return null;
+        }
+        if (k.text.length() != n) return null;
+        for (int i = 1; i < n; i++) {
+            if (buf[start + i] != k.text.charAt(i)) return null;
+        }
+        return k;
+    } // end method Lexer.keyword
+} // end class Lexer
@@ -23,21 +23,22 @@ class ParseTree {
     }
 
     private Node root;  // root of the parse tree
+    private Diagnostics diagnostics;    // where errors and warnings of this file are printed
 
     /**
      * ParseTree.ParseTree
-     * Constructor builds a parse tree organizing the tokens from list
-     * @param list - LinkedList of tokens from a .jack file
+     * Constructor builds a parse tree organizing the tokens from a token stream
+     * @param iter - stream of tokens from a .jack file
      */
-    ParseTree(LinkedList<Token> list) {
-        ListIterator<Token> iter = list.listIterator();
+    ParseTree(TokenStream iter) {
+        this.diagnostics = iter.diagnostics();
         if (!iter.hasNext()) {
-            System.err.println("Error: cannot create ParseTree from empty Token list.");
+            this.diagnostics.error("cannot create ParseTree from empty Token list.");
             return;
         }
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType != Token.TokenType.KEYWORD || token.keywordType != Token.KeywordType.CLASS) {
-            System.err.println("Error: Token list must begin with Keyword Class token.");
+            this.diagnostics.error("Token list must begin with Keyword Class token.");
             return;
         }
         this.root = new StructureNode(StructureType.CLASS, iter, 0);
@@ -52,7 +53,7 @@ class ParseTree {
         try (PrintWriter pw = new PrintWriter(fileName)) {
             this.root.print(pw);
         } catch (FileNotFoundException fnfe) {
-            System.err.println("Error: FileNotFoundException when attempting to write file " + fileName);
+            this.diagnostics.error("FileNotFoundException when attempting to write file " + fileName);
         }
     } // end method ParseTree.writeTree
 
@@ -63,24 +64,12 @@ class ParseTree {
      */
     void writeCode(String fileName) {
         try (PrintWriter pw = new PrintWriter(fileName)) {
-            this.root.writeCode(pw, new SymbolTable());
+            this.root.writeCode(pw, new SymbolTable(this.diagnostics));
         } catch (FileNotFoundException fnfe) {
-            System.err.println("Error: FileNotFoundException when attempting to write file " + fileName);
+            this.diagnostics.error("FileNotFoundException when attempting to write file " + fileName);
         }
     } // end method ParseTree.writeCode
 
-    /**
-     * ParseTree.peek
-     * Without net change to iterator, return the element that would be returned by iter.next.
-     * @param iter - Token list iterator used to write to file
-     * @return Token that would be returned by call to iter.next
-     */
-    static Token peek(ListIterator<Token> iter) {
-        Token token = iter.next();
-        iter.previous();
-        return token;
-    } // end method ParseTree.peek
-
     /**
      * ParseTree.Node
      * Class of Node of Parse Tree
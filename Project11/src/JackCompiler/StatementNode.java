@@ -1,7 +1,6 @@
 package JackCompiler;
 
 import JackCompiler.ExpressionNode.ExpressionType;
-import static JackCompiler.ParseTree.peek;
 import JackCompiler.StructureNode.*;
 import JackCompiler.ParseTree.*;
 import JackCompiler.Token.*;
@@ -46,7 +45,7 @@ class StatementNode extends Node {
     private StatementType statementType;    // statement type to be held by this node
     private int childIndent;                // indentation level for children of this node
 
-    StatementNode(StatementType statementType, ListIterator<Token> iter, int indentLevel) {
+    StatementNode(StatementType statementType, TokenStream iter, int indentLevel) {
         super(NodeType.STATEMENT, indentLevel);
         this.statementType = statementType;
         this.childIndent = (statementType.printable) ? (indentLevel + 1) : indentLevel;
@@ -73,7 +72,7 @@ class StatementNode extends Node {
                 this.buildReturnStatement(iter);
                 break;
             default:
-                System.err.println("Error: attempted to make StatementNode from invalid StatementType.");
+                iter.diagnostics().error("attempted to make StatementNode from invalid StatementType.");
         }
     } // end method StatementNode.StatementNode
 
@@ -81,12 +80,12 @@ class StatementNode extends Node {
      * StatementNode.buildStatements
      * Set this Expression node instance to a STATEMENTS node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildStatements(ListIterator<Token> iter) {
+    private void buildStatements(TokenStream iter) {
         // statement*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType == TokenType.SYMBOL && token.symbolType == SymbolType.CLOSE_BRACE) {
                 break;
             }
@@ -99,10 +98,10 @@ class StatementNode extends Node {
      * StatementNode.buildStatement
      * Set this Expression node instance to a STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildStatement(ListIterator<Token> iter) {
-        Token token = peek(iter);
+    private void buildStatement(TokenStream iter) {
+        Token token = iter.peek();
         // letStatement | ifStatement | whileStatement | doStatement | returnStatement
         if (token.keywordType == KeywordType.LET) {
             this.children.add(new StatementNode(StatementType.LET_STATEMENT, iter, this.childIndent));
@@ -121,15 +120,15 @@ class StatementNode extends Node {
      * StatementNode.buildLetStatement
      * Set this Expression node instance to a LET_STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildLetStatement(ListIterator<Token> iter) {
+    private void buildLetStatement(TokenStream iter) {
         // 'let'
         this.children.add(new TokenNode(iter, this.childIndent));
         // varName
         this.children.add(new StructureNode(StructureType.VAR_NAME, iter, this.childIndent));
         // ('[' expression ']')?
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType == TokenType.SYMBOL && token.symbolType == SymbolType.OPEN_BRACKET) {
             // '['
             this.children.add(new TokenNode(iter, this.childIndent));
@@ -150,9 +149,9 @@ class StatementNode extends Node {
      * StatementNode.buildIfStatement
      * Set this Expression node instance to a IF_STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildIfStatement(ListIterator<Token> iter) {
+    private void buildIfStatement(TokenStream iter) {
         // 'if'
         this.children.add(new TokenNode(iter, this.childIndent));
         // '('
@@ -168,7 +167,7 @@ class StatementNode extends Node {
         // '}'
         this.children.add(new TokenNode(iter, this.childIndent));
         // ('else' '{' statements '}')?
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType == TokenType.KEYWORD && token.keywordType == KeywordType.ELSE) {
             // 'else'
             this.children.add(new TokenNode(iter, this.childIndent));
@@ -185,9 +184,9 @@ class StatementNode extends Node {
      * StatementNode.buildWhileStatement
      * Set this Expression node instance to a WHILE_STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildWhileStatement(ListIterator<Token> iter) {
+    private void buildWhileStatement(TokenStream iter) {
         // 'while'
         this.children.add(new TokenNode(iter, this.childIndent));
         // '('
@@ -208,9 +207,9 @@ class StatementNode extends Node {
      * StatementNode.buildDoStatement
      * Set this Expression node instance to a DO_STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildDoStatement(ListIterator<Token> iter) {
+    private void buildDoStatement(TokenStream iter) {
         // 'do'
         this.children.add(new TokenNode(iter, this.childIndent));
         // subroutineCall
@@ -223,13 +222,13 @@ class StatementNode extends Node {
      * StatementNode.buildReturnStatement
      * Set this Expression node instance to a RETURN_STATEMENT node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildReturnStatement(ListIterator<Token> iter) {
+    private void buildReturnStatement(TokenStream iter) {
         // 'return'
         this.children.add(new TokenNode(iter, this.childIndent));
         // expression?
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType != TokenType.SYMBOL || token.symbolType != SymbolType.SEMI_COLON) {
             // expression
             this.children.add(new ExpressionNode(ExpressionType.EXPRESSION, iter, this.childIndent));
@@ -287,7 +286,7 @@ class StatementNode extends Node {
                 this.writeReturnStatement(pw, symbolTable);
                 break;
             default:
-                System.err.println("Warning: tried to compile StatementNode with no valid StatementType.");
+                symbolTable.diagnostics.warning("tried to compile StatementNode with no valid StatementType.");
         }
     } // end method StatementNode.writeCode
 
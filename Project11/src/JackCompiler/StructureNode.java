@@ -1,10 +1,8 @@
 package JackCompiler;
 
-import static JackCompiler.ParseTree.peek;
 import JackCompiler.StatementNode.*;
 import JackCompiler.SymbolTable.*;
 import JackCompiler.ParseTree.*;
-import java.util.ListIterator;
 import JackCompiler.Token.*;
 import java.io.PrintWriter;
 
@@ -50,7 +48,7 @@ class StructureNode extends Node {
     private StructureType structureType;    // structure type to be held by this node
     private int childIndent;                // indentation level for children of this node
 
-    StructureNode(StructureType structureType, ListIterator<Token> iter, int indentLevel) {
+    StructureNode(StructureType structureType, TokenStream iter, int indentLevel) {
         super(NodeType.STRUCTURE, indentLevel);
         this.structureType = structureType;
         this.childIndent = (structureType.printable) ? indentLevel + 1 : indentLevel;
@@ -87,7 +85,7 @@ class StructureNode extends Node {
                 this.children.add(new TokenNode(iter, this.childIndent));
                 break;
             default:
-                System.err.println("Error: attempted to make StructureNode from invalid structureType.");
+                iter.diagnostics().error("attempted to make StructureNode from invalid structureType.");
         }
     } // end method StructureNode.StructureNode
 
@@ -95,9 +93,9 @@ class StructureNode extends Node {
      * StructureNode.buildClass
      * Set this StructureNode instance to a CLASS node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildClass(ListIterator<Token> iter) {
+    private void buildClass(TokenStream iter) {
         // 'class'
         this.children.add(new TokenNode(iter, this.childIndent));
         // 'className'
@@ -106,7 +104,7 @@ class StructureNode extends Node {
         this.children.add(new TokenNode(iter, this.childIndent));
         // classVarDec*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != Token.TokenType.KEYWORD) break;
             if (token.keywordType != Token.KeywordType.STATIC
                     && token.keywordType != Token.KeywordType.FIELD) break;
@@ -115,7 +113,7 @@ class StructureNode extends Node {
         }
         // subroutineDec*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != Token.TokenType.KEYWORD) break;
             if (token.keywordType != Token.KeywordType.CONSTRUCTOR
                     && token.keywordType != Token.KeywordType.FUNCTION
@@ -131,9 +129,9 @@ class StructureNode extends Node {
      * StructureNode.buildClassVarDec
      * Set this StructureNode instance to a CLASS_VAR_DEC node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildClassVarDec(ListIterator<Token> iter) {
+    private void buildClassVarDec(TokenStream iter) {
         // 'static' | 'field'
         this.children.add(new TokenNode(iter, this.childIndent));
         // type
@@ -142,7 +140,7 @@ class StructureNode extends Node {
         this.children.add(new StructureNode(StructureType.VAR_NAME, iter, this.childIndent));
         // (',' varName)*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != Token.TokenType.SYMBOL) break;
             if (token.symbolType != Token.SymbolType.COMMA) break;
             // ','
@@ -158,11 +156,11 @@ class StructureNode extends Node {
      * StructureNode.buildType
      * Set this StructureNode instance to a TYPE node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildType(ListIterator<Token> iter) {
+    private void buildType(TokenStream iter) {
         // 'int' | 'char' | 'boolean' | className
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType == Token.TokenType.KEYWORD) {
             this.children.add(new TokenNode(iter, this.childIndent));
         } else {
@@ -174,13 +172,13 @@ class StructureNode extends Node {
      * StructureNode.buildSubroutineDec
      * Set this StructureNode instance to a SUBROUTINE_DEC node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildSubroutineDec(ListIterator<Token> iter) {
+    private void buildSubroutineDec(TokenStream iter) {
         // ('constructor' | 'function' | 'method')
         this.children.add(new TokenNode(iter, this.childIndent));
         // ('void' | type)
-        Token token = peek(iter);
+        Token token = iter.peek();
         if (token.tokenType == Token.TokenType.KEYWORD && token.keywordType == Token.KeywordType.VOID) {
             this.children.add(new TokenNode(iter, this.childIndent));
         } else {
@@ -202,10 +200,10 @@ class StructureNode extends Node {
      * StructureNode.buildParameterList
      * Set this StructureNode instance to a PARAMETER_LIST node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildParameterList(ListIterator<Token> iter) {
-        Token token = peek(iter);
+    private void buildParameterList(TokenStream iter) {
+        Token token = iter.peek();
         if (token.tokenType == Token.TokenType.SYMBOL && token.symbolType == Token.SymbolType.CLOSE_PAREN) {
             return;
         }
@@ -215,7 +213,7 @@ class StructureNode extends Node {
         this.children.add(new StructureNode(StructureType.VAR_NAME, iter, this.childIndent));
         // (',' type varName)*
         while (true) {
-            token = peek(iter);
+            token = iter.peek();
             if (token.tokenType == Token.TokenType.SYMBOL && token.symbolType == Token.SymbolType.CLOSE_PAREN) {
                 break;
             }
@@ -232,14 +230,14 @@ class StructureNode extends Node {
      * StructureNode.buildSubroutineBody
      * Set this StructureNode instance to a SUBROUTINE_BODY node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildSubroutineBody(ListIterator<Token> iter) {
+    private void buildSubroutineBody(TokenStream iter) {
         // '{'
         this.children.add(new TokenNode(iter, this.childIndent));
         // varDec*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != Token.TokenType.KEYWORD
                     || token.keywordType != Token.KeywordType.VARIABLE) {
                 break;
@@ -257,9 +255,9 @@ class StructureNode extends Node {
      * StructureNode.buildVarDec
      * Set this StructureNode instance to a VAR_DEC node, and recursively build all nodes
      * in subtree rooted at this node.
-     * @param iter - Token list iterator used to retrieve tokens and advance list position
+     * @param iter - Token stream used to retrieve tokens and advance its position
      */
-    private void buildVarDec(ListIterator<Token> iter) {
+    private void buildVarDec(TokenStream iter) {
         // 'var'
         this.children.add(new TokenNode(iter, this.childIndent));
         // type
@@ -268,7 +266,7 @@ class StructureNode extends Node {
         this.children.add(new StructureNode(StructureType.VAR_NAME, iter, this.childIndent));
         // (',' varName)*
         while (true) {
-            Token token = peek(iter);
+            Token token = iter.peek();
             if (token.tokenType != Token.TokenType.SYMBOL
                     || token.symbolType != Token.SymbolType.COMMA) {
                 break;
@@ -331,7 +329,7 @@ class StructureNode extends Node {
                 // already written at a shallower layer of recursion
                 break;
             default:
-                System.err.println("Warning: tried to compile StructureNode with no valid StructureType.");
+                symbolTable.diagnostics.warning("tried to compile StructureNode with no valid StructureType.");
         }
     } // end method StructureNode.writeCode
 
@@ -32,25 +32,29 @@ public class SymbolTable {
     } // end enum SymbolTable.SymbolKind
 
     String className;                                       // name of current class scope
-    static int labelNum;                                    // number used for making unique labels
+    int labelNum;                                           // number used for making unique labels in this class
     private HashMap<String, Properties> classSymbols;       // map of class scope symbols
     private HashMap<String, Properties> subroutineSymbols;  // map of subroutine scope symbols
     private int numStatics;                                 // running count of static variables
     private int numFields;                                  // running count of fields
     private int numArgs;                                    // running count of argument variables
     private int numVars;                                    // running count of variables
+    Diagnostics diagnostics;                                // where warnings about symbols are printed
 
     /**
      * SymbolTable.SymbolTable
      * Constructor initializes data structures.
+     * @param diagnostics - where warnings about symbols are printed
      */
-    SymbolTable() {
+    SymbolTable(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
         this.classSymbols = new HashMap<>();
         this.subroutineSymbols = new HashMap<>();
         this.numStatics = 0;
         this.numFields = 0;
         this.numArgs = 0;
         this.numVars = 0;
+        this.labelNum = 0;
     } // end method SymbolTable.SymbolTable
 
     /**
@@ -94,7 +98,7 @@ public class SymbolTable {
                 this.subroutineSymbols.put(name, new Properties(kind, type, this.numVars++));
                 break;
             default:
-                System.err.println("Warning: tried to create symbol with NONE kind.");
+                this.diagnostics.warning("tried to create symbol with NONE kind.");
         }
     } // end method SymbolTable.define
 
@@ -116,7 +120,7 @@ public class SymbolTable {
                 return this.numVars;
             case NONE:
             default:
-                System.err.println("Warning: tried to find count of symbols with NONE kind.");
+                this.diagnostics.warning("tried to find count of symbols with NONE kind.");
         }
         return -1;
     } // end method SymbolTable.varCount
@@ -148,7 +152,7 @@ public class SymbolTable {
         } else if (this.classSymbols.containsKey(name)) {
             return this.classSymbols.get(name).type;
         }
-        System.err.println("Warning: symbol " + name + " has no type.");
+        this.diagnostics.warning("symbol " + name + " has no type.");
         return "";
     } // end method SymbolTable.typeOf
 
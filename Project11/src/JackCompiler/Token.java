@@ -160,92 +160,15 @@ class Token {
      * Convert a .jack file to a LinkedList of tokens
      * @param f - .jack file to be tokenized
      * @return LinkedList of tokens
+     * @throws IOException from reading the file
      */
-    static LinkedList<Token> getTokenList(File f) throws FileNotFoundException {
+    static LinkedList<Token> getTokenList(File f) throws IOException {
         LinkedList<Token> list = new LinkedList<>();
-        try (Scanner scan = new Scanner(f)) {
-            StringBuilder sb = new StringBuilder();
-            while (scan.hasNextLine()) {
-                String str = trim(scan.nextLine());
-                sb.append(str).append("\n");
-            }
-            tokenizeStringToList(list, sb.toString());
-        }
+        Lexer lexer = new Lexer(f);
+        for (Token token = lexer.next(); token != null; token = lexer.next()) list.add(token);
         return list;
     } // end method Token.getTokenList
 
-    /**
-     * Token.tokenizeStringToList
-     * Tokenize a string and append its tokens to a given list.
-     * @param list - list to which the string's tokens should be added
-     * @param str - string which should be tokenized
-     */
-    private static void tokenizeStringToList(LinkedList<Token> list, String str) {
-        str = str.trim();
-        int index;
-        while (!str.isEmpty()) {
-            if (str.startsWith("/*")) {
-                // comment case
-                index = str.indexOf("*/", 2) + 2;
-            } else if (str.startsWith("\"")) {
-                // string constant case
-                index = str.indexOf("\"", 1) + 1;
-                String text = str.substring(1, index - 1);
-                Token token = new Token(null, null, TokenType.STRING, text);
-                list.add(token);
-            } else if ((new Scanner(str)).nextLine().matches("\\d+(\\s|.)*")) {
-                // number case
-                Scanner scan = new Scanner(str).useDelimiter("[^\\d]");
-                String text = scan.next();
-                Token token = new Token(null, null, TokenType.INTEGER, text);
-                list.add(token);
-                index = text.length();
-            } else if ((new Scanner(str)).nextLine().matches("[\\w&&[^\\d]](\\w)*(\\s|.)*")) {
-                // word case
-                Scanner scan = new Scanner(str).useDelimiter("[^\\w]");
-                String text = scan.next();
-                index = text.length();
-                if (KeywordType.getKeywordType(text) != null) {
-                    Token token = new Token(KeywordType.getKeywordType(text), null, TokenType.KEYWORD, text);
-                    list.add(token);
-                } else {
-                    Token token = new Token(null, null, TokenType.IDENTIFIER, text);
-                    list.add(token);
-                }
-            } else if (SymbolType.getSymbolType(str.substring(0,1)) != null) {
-                // symbol case
-                String text = str.substring(0,1);
-                Token token = new Token(null, SymbolType.getSymbolType(text), TokenType.SYMBOL, text);
-                list.add(token);
-                index = 1;
-            } else {
-                // error case
-                Scanner scan = new Scanner(str);
-                System.err.println("Error: cannot parse " + scan.nextLine());
-                return;
-            }
-            str = str.substring(index).trim();
-        }
-    } // end method Token.tokenizeStringToList
-
-    /**
-     * Token.trim
-     * Trims comments and terminal whitespace from string
-     * @param s - String to be trimmed
-     * @return trimmed string
-     */
-    private static String trim(String s) {
-        int index = s.indexOf("//");
-        if (index == 0) {
-            return "";
-        } else if (index > 0) {
-            s = s.substring(0, index);
-            return s.trim();
-        } else {
-            return s.trim();
-        }
-    } // end method Token.trim
-
     /**
      * Token.writeTokenList
      * Write a token list to an output file.
@@ -16,10 +16,10 @@ class TokenNode extends Node {
     /**
      * TokenNode.TokenNode
      * Constructor creates a node to hold next Token in list
-     * @param iter - ListIterator used to get next token and then advance list position
+     * @param iter - Token stream used to get next token and then advance its position
      * @param indentLevel - indentation level of this TokenNode
      */
-    TokenNode(ListIterator<Token> iter, int indentLevel) {
+    TokenNode(TokenStream iter, int indentLevel) {
         super(NodeType.TOKEN, indentLevel);
         this.token = iter.next();
     } // end method TokenNode.TokenNode
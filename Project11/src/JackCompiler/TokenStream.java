@@ -0,0 +1,106 @@
+package JackCompiler;
+
+import java.util.*;
+
+/**
+ * TokenStream.java
+ * MPCS 52011 - Project 11
+ * Pull-based source of tokens for the parse tree nodes, with two tokens of lookahead.
+ * Tokens are taken from a Lexer one at a time as the nodes consume them, so the token
+ * list of a file is never built.
+ */
+class TokenStream {
+    private Lexer lexer;            // source of tokens, or null when reading from a list
+    private Iterator<Token> list;   // source of tokens when made from a token list, or null
+    private Token first;            // token that next will return, or null at the end
+    private Token second;           // token after first, or null at the end
+    private Diagnostics diagnostics; // where errors found while parsing are printed
+
+    /**
+     * TokenStream.TokenStream
+     * Constructor reads tokens from a Lexer as they are needed
+     * @param lexer - Lexer of a .jack file
+     */
+    TokenStream(Lexer lexer) {
+        this.lexer = lexer;
+        this.diagnostics = lexer.diagnostics();
+        this.first = this.read();
+        this.second = this.read();
+    } // end method TokenStream.TokenStream
+
+    /**
+     * TokenStream.TokenStream
+     * Constructor reads tokens from a token list that has already been built
+     * @param tokens - tokens returned by Token.getTokenList
+     */
+    TokenStream(List<Token> tokens) {
+        this.list = tokens.iterator();
+        this.diagnostics = new Diagnostics(System.err);
+        this.first = this.read();
+        this.second = this.read();
+    } // end method TokenStream.TokenStream
+
+    /**
+     * TokenStream.read
+     * Get a token from the source
+     * @return the next token from the Lexer or list, or null if there are no more
+     */
+    private Token read() {
+        if (this.lexer != null) return this.lexer.next();
+        return this.list.hasNext() ? this.list.next() : null;
+    } // end method TokenStream.read
+
+    /**
+     * TokenStream.diagnostics
+     * Get where errors found while parsing are printed, which are those of the Lexer
+     * @return Diagnostics of the file being parsed
+     */
+    Diagnostics diagnostics() {
+        return this.diagnostics;
+    } // end method TokenStream.diagnostics
+
+    /**
+     * TokenStream.hasNext
+     * Check if any tokens remain
+     * @return true if next will return a token
+     */
+    boolean hasNext() {
+        return this.first != null;
+    } // end method TokenStream.hasNext
+
+    /**
+     * TokenStream.next
+     * Return the next token and advance past it
+     * @return the next token
+     * @throws NoSuchElementException if no tokens remain
+     */
+    Token next() {
+        if (this.first == null) throw new NoSuchElementException("no tokens remain");
+        Token token = this.first;
+        this.first = this.second;
+        this.second = (this.first == null) ? null : this.read();
+        return token;
+    } // end method TokenStream.next
+
+    /**
+     * TokenStream.peek
+     * Without advancing, return the token that would be returned by next
+     * @return the next token
+     * @throws NoSuchElementException if no tokens remain
+     */
+    Token peek() {
+        if (this.first == null) throw new NoSuchElementException("no tokens remain");
+        return this.first;
+    } // end method TokenStream.peek
+
+    /**
+     * TokenStream.peek2
+     * Without advancing, return the token after the one that would be returned by next
+     * @return the token after the next token
+     * @throws NoSuchElementException if fewer than two tokens remain
+     */
+    Token peek2() {
+        if (this.second == null) throw new NoSuchElementException("fewer than two tokens remain");
+        return this.second;
+    } // end method TokenStream.peek2
+} // end class TokenStream